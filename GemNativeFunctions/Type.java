@@ -9,7 +9,7 @@ public class Type implements GemCallable {
     public Object call(Interpreter interpreter, List<Object> arguments) {
         Object value = arguments.getFirst();
         if(value instanceof String){
-            return "<class 'String'>";
+            return "<inst 'String'>";
         }
         if(value instanceof Double){
             return "<inst 'Number'>";
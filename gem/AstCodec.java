@@ -0,0 +1,776 @@
+package com.interpreter.gem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+// Compact binary form of resolved, optimized statements, so a module does not have to be scanned,
+// parsed and resolved again. Everything the Resolver fills in is kept; what the Interpreter caches
+// on nodes at run time (binary specializations, inline caches, chunks) starts out fresh.
+//
+// Ints are zigzag varints. Strings go into a table as they are first met: a reference is the
+// string's index plus one, or 0 for null, and an index one past the end of the table is followed
+// by the new string's bytes. Tokens are written in full wherever they occur.
+public class AstCodec {
+    // Bumped whenever the layout below changes.
+    private static final int FORMAT = 1;
+    private static final int MAGIC = 0x47454d43; // "GEMC"
+
+    private static final int NULL_NODE = 0xff;
+
+    private static final int NIL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int NUMBER = 3;
+    private static final int STRING = 4;
+
+    private static String version;
+
+    // Identifies the interpreter build that encoded something: the format plus a fingerprint of the
+    // code it runs from, Interpreter.jar or a directory of classes, since the Parser, Resolver and
+    // Optimizer are part of what was cached. The contents are fingerprinted rather than the jar's
+    // size and time, which a rebuild can leave unchanged.
+    static String version() {
+        if (version == null) {
+            String build;
+            try {
+                build = build(Interpreter.sourcePath);
+            } catch (IOException | RuntimeException e) {
+                // No way to tell this build from another, so nothing it writes is ever read back.
+                build = "unknown-" + UUID.randomUUID();
+            }
+            version = FORMAT + "-" + build;
+        }
+        return version;
+    }
+
+    private static String build(Path code) throws IOException {
+        Fingerprint fingerprint = new Fingerprint();
+        if (Files.isRegularFile(code)) {
+            return fingerprint.update(Files.readAllBytes(code)).toString();
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(code)) {
+            files = walk.filter(Files::isRegularFile).sorted().toList();
+        }
+        for (Path file : files) {
+            fingerprint.update((code.relativize(file) + "\0").getBytes(StandardCharsets.UTF_8));
+            fingerprint.update(Files.readAllBytes(file));
+        }
+        return fingerprint.toString();
+    }
+
+    // CRC32 and CRC32C of the same bytes side by side, with their length. The checks made on every
+    // start use this rather than hash(): they only have to notice that something changed, and a
+    // MessageDigest takes tens of milliseconds to set up in a fresh JVM.
+    static final class Fingerprint {
+        private final CRC32 crc32 = new CRC32();
+        private final CRC32C crc32c = new CRC32C();
+        private long length = 0;
+
+        Fingerprint update(byte[] bytes) {
+            crc32.update(bytes);
+            crc32c.update(bytes);
+            length += bytes.length;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return Long.toHexString(crc32.getValue()) + Long.toHexString(crc32c.getValue()) + "-" + length;
+        }
+    }
+
+    static String hash(String... parts) {
+        MessageDigest digest = digest();
+        for (String part : parts) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Thrown for anything the codec cannot represent, or for bytes it did not write.
+    static final class CodecException extends RuntimeException {
+        CodecException(String message) {
+            super(message);
+        }
+
+        CodecException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    static byte[] encode(List<Stmt> statements) {
+        Encoder encoder = new Encoder();
+        encoder.writeInt(MAGIC);
+        encoder.writeInt(FORMAT);
+        encoder.writeStatements(statements);
+        return encoder.out.toByteArray();
+    }
+
+    // Damaged bytes can fail in ways the decoder does not check for itself (a file name that is not
+    // a valid path, a node built from mismatched parts), so any failure comes out as CodecException
+    // and callers only have to treat that one as a cache miss.
+    static List<Stmt> decode(ByteBuffer buffer) {
+        try {
+            Decoder decoder = new Decoder(buffer);
+            if (decoder.readInt() != MAGIC || decoder.readInt() != FORMAT) {
+                throw new CodecException("Not an encoded module of this format.");
+            }
+            return decoder.readStatements();
+        } catch (CodecException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new CodecException("Malformed module.", e);
+        }
+    }
+
+    // Writing.
+
+    private static final class Encoder implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        void writeInt(int value) {
+            int zigzag = (value << 1) ^ (value >> 31);
+            while ((zigzag & ~0x7f) != 0) {
+                out.write((zigzag & 0x7f) | 0x80);
+                zigzag >>>= 7;
+            }
+            out.write(zigzag);
+        }
+
+        void writeBoolean(boolean value) {
+            out.write(value ? 1 : 0);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeInt(0);
+                return;
+            }
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeInt(index + 1);
+                return;
+            }
+            strings.put(value, strings.size());
+            writeInt(strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        void writeValue(Object value) {
+            if (value == null) {
+                out.write(NIL);
+            } else if (value instanceof Boolean bool) {
+                out.write(bool ? TRUE : FALSE);
+            } else if (value instanceof Double number) {
+                out.write(NUMBER);
+                long bits = Double.doubleToRawLongBits(number);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) (bits >>> shift));
+                }
+            } else if (value instanceof String string) {
+                out.write(STRING);
+                writeString(string);
+            } else {
+                throw new CodecException("Cannot encode a literal of type " + value.getClass().getSimpleName() + ".");
+            }
+        }
+
+        void writeToken(Token token) {
+            if (token == null) {
+                writeBoolean(false);
+                return;
+            }
+            writeBoolean(true);
+            writeInt(token.type.ordinal());
+            writeString(token.lexeme);
+            writeValue(token.literal);
+            writeInt(token.line);
+            writeString(token.sourceFile == null ? null : token.sourceFile.toString());
+        }
+
+        void writeTokens(List<Token> tokens) {
+            writeInt(tokens.size());
+            for (Token token : tokens) writeToken(token);
+        }
+
+        void writeNames(String[] names) {
+            writeInt(names.length);
+            for (String name : names) writeString(name);
+        }
+
+        void writeExpr(Expr expr) {
+            if (expr == null) {
+                out.write(NULL_NODE);
+                return;
+            }
+            expr.accept(this);
+        }
+
+        void writeExprs(List<Expr> exprs) {
+            writeInt(exprs.size());
+            for (Expr expr : exprs) writeExpr(expr);
+        }
+
+        void writeStmt(Stmt stmt) {
+            if (stmt == null) {
+                out.write(NULL_NODE);
+                return;
+            }
+            stmt.accept(this);
+        }
+
+        void writeStatements(List<? extends Stmt> statements) {
+            writeInt(statements.size());
+            for (Stmt stmt : statements) writeStmt(stmt);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            out.write(0);
+            writeToken(expr.name);
+            writeExpr(expr.value);
+            writeInt(expr.depth);
+            writeInt(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            out.write(1);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            out.write(2);
+            writeExpr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            out.write(3);
+            writeValue(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            out.write(4);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            out.write(5);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            out.write(6);
+            writeToken(expr.name);
+            writeString(expr.parent);
+            writeInt(expr.depth);
+            writeInt(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            out.write(7);
+            writeExpr(expr.callee);
+            writeToken(expr.paren);
+            writeExprs(expr.arguments);
+            writeString(expr.mangledName);
+            writeInt(expr.depth);
+            writeInt(expr.slot);
+            writeBoolean(expr.tailCall);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            out.write(8);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            out.write(9);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            writeExpr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            out.write(10);
+            writeToken(expr.keyword);
+            writeInt(expr.depth);
+            writeInt(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            out.write(11);
+            writeToken(expr.keyword);
+            writeToken(expr.method);
+            writeInt(expr.depth);
+            writeInt(expr.slot);
+            writeInt(expr.thisDepth);
+            writeInt(expr.thisSlot);
+            return null;
+        }
+
+        @Override
+        public Void visitGetIndexExpr(Expr.GetIndex expr) {
+            out.write(12);
+            writeExpr(expr.object);
+            writeExpr(expr.indexStart);
+            writeExpr(expr.indexEnd);
+            writeToken(expr.bracket);
+            return null;
+        }
+
+        @Override
+        public Void visitSetIndexExpr(Expr.SetIndex expr) {
+            out.write(13);
+            writeExpr(expr.object);
+            writeExpr(expr.index);
+            writeExpr(expr.value);
+            writeToken(expr.bracket);
+            return null;
+        }
+
+        @Override
+        public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+            out.write(14);
+            writeExprs(expr.elements);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            out.write(0);
+            writeStatements(stmt.statements);
+            writeNames(stmt.frame);
+            return null;
+        }
+
+        @Override
+        public Void visitThrowStmt(Stmt.Throw stmt) {
+            out.write(1);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitTryStmt(Stmt.Try stmt) {
+            out.write(2);
+            writeStmt(stmt.tryBlock);
+            writeToken(stmt.catchToken);
+            writeExpr(stmt.errorVar);
+            writeStmt(stmt.catchBlock);
+            writeStmt(stmt.finallyBlock);
+            writeNames(stmt.catchFrame);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            out.write(3);
+            writeToken(stmt.name);
+            writeExpr(stmt.superclass);
+            writeStatements(stmt.methods);
+            writeStatements(stmt.staticMethods);
+            writeStatements(stmt.staticFields);
+            writeInt(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            out.write(4);
+            writeExpr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            out.write(5);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.thenBranch);
+            writeStmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            out.write(6);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.body);
+            writeStmt(stmt.increment);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            out.write(7);
+            writeToken(stmt.name);
+            writeExpr(stmt.initializer);
+            writeInt(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            out.write(8);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            out.write(9);
+            writeString(stmt.moduleName);
+            writeToken(stmt.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            out.write(10);
+            writeToken(stmt.name);
+            writeTokens(stmt.params);
+            writeStatements(stmt.body);
+            writeString(stmt.parent);
+            writeNames(stmt.frame);
+            writeInt(stmt.slot);
+            writeInt(stmt.dispatcherSlot);
+            writeBoolean(stmt.hasReceiver);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt) {
+            out.write(11);
+            writeToken(stmt.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Stmt.Continue stmt) {
+            out.write(12);
+            writeToken(stmt.keyword);
+            return null;
+        }
+    }
+
+    // Reading.
+
+    private static final class Decoder {
+        private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+        private final ByteBuffer in;
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Path> paths = new HashMap<>();
+
+        Decoder(ByteBuffer in) {
+            this.in = in;
+        }
+
+        int readByte() {
+            if (!in.hasRemaining()) throw new CodecException("Truncated module.");
+            return in.get() & 0xff;
+        }
+
+        int readInt() {
+            int zigzag = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 28) throw new CodecException("Malformed integer.");
+                int b = readByte();
+                zigzag |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) break;
+            }
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        // The length of a list that follows. Every element takes at least a byte, so a count larger
+        // than what is left cannot be right and is rejected before anything is allocated for it.
+        int readCount() {
+            int count = readInt();
+            if (count < 0 || count > in.remaining()) throw new CodecException("Malformed count.");
+            return count;
+        }
+
+        boolean readBoolean() {
+            return readByte() != 0;
+        }
+
+        String readString() {
+            int reference = readInt();
+            if (reference == 0) return null;
+            if (reference <= strings.size()) return strings.get(reference - 1);
+            if (reference != strings.size() + 1) throw new CodecException("Malformed string reference.");
+
+            int length = readInt();
+            if (length < 0 || length > in.remaining()) throw new CodecException("Truncated module.");
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        Object readValue() {
+            return switch (readByte()) {
+                case NIL -> null;
+                case TRUE -> true;
+                case FALSE -> false;
+                case NUMBER -> {
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) bits = (bits << 8) | readByte();
+                    yield Double.longBitsToDouble(bits);
+                }
+                case STRING -> readString();
+                default -> throw new CodecException("Unknown literal tag.");
+            };
+        }
+
+        Token readToken() {
+            if (!readBoolean()) return null;
+            int type = readInt();
+            if (type < 0 || type >= TOKEN_TYPES.length) throw new CodecException("Unknown token type.");
+            String lexeme = readString();
+            Object literal = readValue();
+            int line = readInt();
+            String file = readString();
+            return new Token(TOKEN_TYPES[type], lexeme, literal, line, file == null ? null : paths.computeIfAbsent(file, Paths::get));
+        }
+
+        List<Token> readTokens() {
+            int count = readCount();
+            List<Token> tokens = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) tokens.add(readToken());
+            return tokens;
+        }
+
+        String[] readNames() {
+            int count = readCount();
+            if (count == 0) return Environment.NO_SLOTS;
+            String[] names = new String[count];
+            for (int i = 0; i < count; i++) names[i] = readString();
+            return names;
+        }
+
+        List<Expr> readExprs() {
+            int count = readCount();
+            List<Expr> exprs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) exprs.add(readExpr());
+            return exprs;
+        }
+
+        List<Stmt> readStatements() {
+            int count = readCount();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) statements.add(readStmt());
+            return statements;
+        }
+
+        <T extends Stmt> List<T> readStatements(Class<T> type) {
+            int count = readCount();
+            List<T> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Stmt stmt = readStmt();
+                if (!type.isInstance(stmt)) throw new CodecException("Expected a " + type.getSimpleName() + " statement.");
+                statements.add(type.cast(stmt));
+            }
+            return statements;
+        }
+
+        Expr.Variable readVariable() {
+            Expr expr = readExpr();
+            if (expr != null && !(expr instanceof Expr.Variable)) throw new CodecException("Expected a variable.");
+            return (Expr.Variable) expr;
+        }
+
+        Expr readExpr() {
+            switch (readByte()) {
+                case NULL_NODE -> {
+                    return null;
+                }
+                case 0 -> {
+                    Expr.Assign expr = new Expr.Assign(readToken(), readExpr());
+                    expr.depth = readInt();
+                    expr.slot = readInt();
+                    return expr;
+                }
+                case 1 -> {
+                    return new Expr.Binary(readExpr(), readToken(), readExpr());
+                }
+                case 2 -> {
+                    return new Expr.Grouping(readExpr());
+                }
+                case 3 -> {
+                    return new Expr.Literal(readValue());
+                }
+                case 4 -> {
+                    return new Expr.Logical(readExpr(), readToken(), readExpr());
+                }
+                case 5 -> {
+                    return new Expr.Unary(readToken(), readExpr());
+                }
+                case 6 -> {
+                    Expr.Variable expr = new Expr.Variable(readToken(), readString());
+                    expr.depth = readInt();
+                    expr.slot = readInt();
+                    return expr;
+                }
+                case 7 -> {
+                    Expr.Call expr = new Expr.Call(readExpr(), readToken(), readExprs());
+                    expr.mangledName = readString();
+                    expr.depth = readInt();
+                    expr.slot = readInt();
+                    expr.tailCall = readBoolean();
+                    return expr;
+                }
+                case 8 -> {
+                    return new Expr.Get(readExpr(), readToken());
+                }
+                case 9 -> {
+                    return new Expr.Set(readExpr(), readToken(), readExpr());
+                }
+                case 10 -> {
+                    Expr.This expr = new Expr.This(readToken());
+                    expr.depth = readInt();
+                    expr.slot = readInt();
+                    return expr;
+                }
+                case 11 -> {
+                    Expr.Super expr = new Expr.Super(readToken(), readToken());
+                    expr.depth = readInt();
+                    expr.slot = readInt();
+                    expr.thisDepth = readInt();
+                    expr.thisSlot = readInt();
+                    return expr;
+                }
+                case 12 -> {
+                    return new Expr.GetIndex(readExpr(), readExpr(), readExpr(), readToken());
+                }
+                case 13 -> {
+                    return new Expr.SetIndex(readExpr(), readExpr(), readExpr(), readToken());
+                }
+                case 14 -> {
+                    return new Expr.ListLiteral(readExprs());
+                }
+                default -> throw new CodecException("Unknown expression tag.");
+            }
+        }
+
+        Stmt readStmt() {
+            switch (readByte()) {
+                case NULL_NODE -> {
+                    return null;
+                }
+                case 0 -> {
+                    Stmt.Block stmt = new Stmt.Block(readStatements());
+                    stmt.frame = readNames();
+                    return stmt;
+                }
+                case 1 -> {
+                    return new Stmt.Throw(readToken(), readExpr());
+                }
+                case 2 -> {
+                    Stmt.Try stmt = new Stmt.Try(readStmt(), readToken(), readVariable(), readStmt(), readStmt());
+                    stmt.catchFrame = readNames();
+                    return stmt;
+                }
+                case 3 -> {
+                    Stmt.Class stmt = new Stmt.Class(readToken(), readVariable(), readStatements(Stmt.Function.class),
+                            readStatements(Stmt.Function.class), readStatements(Stmt.Var.class));
+                    stmt.slot = readInt();
+                    return stmt;
+                }
+                case 4 -> {
+                    return new Stmt.Expression(readExpr());
+                }
+                case 5 -> {
+                    return new Stmt.If(readExpr(), readStmt(), readStmt());
+                }
+                case 6 -> {
+                    return new Stmt.While(readExpr(), readStmt(), readStmt());
+                }
+                case 7 -> {
+                    Stmt.Var stmt = new Stmt.Var(readToken(), readExpr());
+                    stmt.slot = readInt();
+                    return stmt;
+                }
+                case 8 -> {
+                    return new Stmt.Return(readToken(), readExpr());
+                }
+                case 9 -> {
+                    return new Stmt.Import(readString(), readToken());
+                }
+                case 10 -> {
+                    Stmt.Function stmt = new Stmt.Function(readToken(), readTokens(), readStatements(), readString());
+                    stmt.frame = readNames();
+                    stmt.slot = readInt();
+                    stmt.dispatcherSlot = readInt();
+                    stmt.hasReceiver = readBoolean();
+                    return stmt;
+                }
+                case 11 -> {
+                    return new Stmt.Break(readToken());
+                }
+                case 12 -> {
+                    return new Stmt.Continue(readToken());
+                }
+                default -> throw new CodecException("Unknown statement tag.");
+            }
+        }
+    }
+}
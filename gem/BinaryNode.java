@@ -0,0 +1,253 @@
+package com.interpreter.gem;
+
+import java.util.List;
+
+// Self-specializing implementation of a binary operator, one per Expr.Binary site. A site starts
+// UNINITIALIZED; its first execution looks at the operand types and replaces the node with one
+// specialized to them. A specialized node only checks its own guard, so a type-stable site never
+// goes through the wrapper unwrapping and operator switches in Interpreter.genericBinary. When a
+// guard fails the site is rewritten to GENERIC for good, which is exactly genericBinary.
+public abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+    static final BinaryNode GENERIC = new Generic();
+
+    static long specializations = 0;
+    static long generalizations = 0;
+
+    abstract Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right);
+
+    static String stats() {
+        return String.format("Binary nodes: %d specialized, %d rewritten to generic", specializations, generalizations);
+    }
+
+    // Called by a specialized node whose guard failed.
+    static Object generalize(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+        generalizations++;
+        expr.specialization = GENERIC;
+        return interpreter.genericBinary(expr, left, right);
+    }
+
+    private static BinaryNode specialize(Expr.Binary expr, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return switch (expr.operator.type) {
+                case PLUS -> AddNumbers.INSTANCE;
+                case MINUS -> SubtractNumbers.INSTANCE;
+                case STAR -> MultiplyNumbers.INSTANCE;
+                case SLASH -> DivideNumbers.INSTANCE;
+                case PERCEN -> RemainderNumbers.INSTANCE;
+                case LESS -> LessNumbers.INSTANCE;
+                case LESS_EQUAL -> LessEqualNumbers.INSTANCE;
+                case GREATER -> GreaterNumbers.INSTANCE;
+                case GREATER_EQUAL -> GreaterEqualNumbers.INSTANCE;
+                case EQUAL_EQUAL -> EqualNumbers.EQUAL;
+                case BANG_EQUAL -> EqualNumbers.NOT_EQUAL;
+                default -> GENERIC;
+            };
+        }
+
+        if (expr.operator.type == TokenType.PLUS && left instanceof String && right instanceof String) {
+            return ConcatStrings.INSTANCE;
+        }
+
+        if (left instanceof GemInstance leftInstance && right instanceof GemInstance rightInstance
+                && Interpreter.unwrap(leftInstance) == leftInstance && Interpreter.unwrap(rightInstance) == rightInstance) {
+            GemFunction method = leftInstance.klass.findMethod(expr.operator.lexeme, 1);
+            if (expr.operator.type == TokenType.EQUAL_EQUAL || expr.operator.type == TokenType.BANG_EQUAL) {
+                return new InstanceEquality(leftInstance.klass, method, expr.operator.type == TokenType.BANG_EQUAL);
+            }
+            if (method != null) {
+                return new OverloadedOperator(leftInstance.klass, method);
+            }
+        }
+
+        return GENERIC;
+    }
+
+    private static final class Uninitialized extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            BinaryNode node = specialize(expr, left, right);
+            if (node != GENERIC) specializations++;
+            expr.specialization = node;
+            return node.execute(interpreter, expr, left, right);
+        }
+    }
+
+    private static final class Generic extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            return interpreter.genericBinary(expr, left, right);
+        }
+    }
+
+    private static final class AddNumbers extends BinaryNode {
+        static final AddNumbers INSTANCE = new AddNumbers();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double a && right instanceof Double b) return a + b;
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+
+    private static final class SubtractNumbers extends BinaryNode {
+        static final SubtractNumbers INSTANCE = new SubtractNumbers();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double a && right instanceof Double b) return a - b;
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+
+    private static final class MultiplyNumbers extends BinaryNode {
+        static final MultiplyNumbers INSTANCE = new MultiplyNumbers();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double a && right instanceof Double b) return a * b;
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+
+    private static final class DivideNumbers extends BinaryNode {
+        static final DivideNumbers INSTANCE = new DivideNumbers();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double a && right instanceof Double b) return a / b;
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+
+    private static final class RemainderNumbers extends BinaryNode {
+        static final RemainderNumbers INSTANCE = new RemainderNumbers();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double a && right instanceof Double b) return a % b;
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+
+    private static final class LessNumbers extends BinaryNode {
+        static final LessNumbers INSTANCE = new LessNumbers();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double a && right instanceof Double b) return a < b;
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+
+    private static final class LessEqualNumbers extends BinaryNode {
+        static final LessEqualNumbers INSTANCE = new LessEqualNumbers();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double a && right instanceof Double b) return a <= b;
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+
+    private static final class GreaterNumbers extends BinaryNode {
+        static final GreaterNumbers INSTANCE = new GreaterNumbers();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double a && right instanceof Double b) return a > b;
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+
+    private static final class GreaterEqualNumbers extends BinaryNode {
+        static final GreaterEqualNumbers INSTANCE = new GreaterEqualNumbers();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double a && right instanceof Double b) return a >= b;
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+
+    // Numbers have no operator methods, so equality is the same tolerance check isEqual makes.
+    private static final class EqualNumbers extends BinaryNode {
+        static final EqualNumbers EQUAL = new EqualNumbers(false);
+        static final EqualNumbers NOT_EQUAL = new EqualNumbers(true);
+
+        private final boolean negate;
+
+        private EqualNumbers(boolean negate) {
+            this.negate = negate;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double a && right instanceof Double b) {
+                return Interpreter.nearlyEqualRel(a, b, 1e-9, 1e-12) != negate;
+            }
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+
+    // String + String, including the generic path's habit of dropping a trailing ".0" from each side.
+    private static final class ConcatStrings extends BinaryNode {
+        static final ConcatStrings INSTANCE = new ConcatStrings();
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof String a && right instanceof String b) {
+                return trimZero(a) + trimZero(b);
+            }
+            return generalize(interpreter, expr, left, right);
+        }
+
+        private static String trimZero(String text) {
+            return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+        }
+    }
+
+    // Operator method on a user class, cached for the class the site has seen.
+    private static final class OverloadedOperator extends BinaryNode {
+        private final GemClass klass;
+        private final GemFunction method;
+
+        OverloadedOperator(GemClass klass, GemFunction method) {
+            this.klass = klass;
+            this.method = method;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof GemInstance leftInstance && leftInstance.klass == klass
+                    && right instanceof GemInstance rightInstance && Interpreter.unwrap(rightInstance) == rightInstance) {
+                return Interpreter.stringify(method.invoke(interpreter, leftInstance, List.of(rightInstance)));
+            }
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+
+    // == or != on instances of one user class, with the class's operator method, or the lack of
+    // one, looked up once for the site.
+    private static final class InstanceEquality extends BinaryNode {
+        private final GemClass klass;
+        private final GemFunction method;
+        private final boolean negate;
+
+        InstanceEquality(GemClass klass, GemFunction method, boolean negate) {
+            this.klass = klass;
+            this.method = method;
+            this.negate = negate;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if (left instanceof GemInstance leftInstance && leftInstance.klass == klass
+                    && right instanceof GemInstance rightInstance && Interpreter.unwrap(rightInstance) == rightInstance) {
+                if (method == null) return (leftInstance == rightInstance) != negate;
+                return interpreter.callEquality(method, leftInstance, rightInstance, negate);
+            }
+            return generalize(interpreter, expr, left, right);
+        }
+    }
+}
@@ -0,0 +1,722 @@
+package com.interpreter.gem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.interpreter.gem.Chunk.*;
+
+// Compiles resolved statements into a Chunk for the VM. A scope that declares no function or class
+// anywhere inside it can never be captured by a closure, so its variables are given registers in
+// the VM frame and entering it costs nothing. Scopes that can be captured keep the Resolver's frame
+// layout in an Environment, so closures see exactly what they would under the tree-walker.
+// Only declarations (functions, classes, imports) are left to the Interpreter, through EXEC.
+public class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private int[] code = new int[64];
+    private int count = 0;
+    private final List<Object> constants = new ArrayList<>();
+    private int stackDepth = 0;
+    private int maxStack = 0;
+
+    // Resolver scopes opened in this chunk, innermost last. Each holds the register of its slot 0,
+    // or -1 when it lives in an Environment.
+    private final List<Integer> scopes = new ArrayList<>();
+    private int registers = 0;
+    private int maxRegisters = 0;
+
+    // What a jump from the current point out of enclosing statements has to undo, innermost last.
+    private final List<Region> regions = new ArrayList<>();
+    private Loop loop = null;
+
+    private enum RegionKind { BLOCK, HANDLER, FINALLY }
+
+    private static final class Region {
+        final RegionKind kind;
+        // For FINALLY: the block to run, and where the try statement it belongs to was compiled.
+        final Stmt body;
+        final int scopes;
+        final int registers;
+        final Loop loop;
+
+        Region(RegionKind kind, Stmt body, int scopes, int registers, Loop loop) {
+            this.kind = kind;
+            this.body = body;
+            this.scopes = scopes;
+            this.registers = registers;
+            this.loop = loop;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int regions;
+        final List<Integer> breaks = new ArrayList<>();
+        final List<Integer> continues = new ArrayList<>();
+
+        Loop(Loop enclosing, int regions) {
+            this.enclosing = enclosing;
+            this.regions = regions;
+        }
+    }
+
+    static Chunk compile(List<Stmt> statements) {
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        for (Stmt statement : statements) {
+            statement.accept(compiler);
+        }
+        compiler.emit(END, 0);
+        return compiler.chunk(false);
+    }
+
+    // A function body always leaves through RETURN, falling off the end returning nil, so the VM
+    // has a single place where a callee's frame is popped. The receiver and parameters are the
+    // first slots of the function's own scope, which the VM fills in when it makes the call.
+    static Chunk compileBody(Stmt.Function declaration) {
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        boolean flat = !captures(declaration.body);
+        compiler.openScope(declaration.frame, flat);
+        for (Stmt statement : declaration.body) {
+            statement.accept(compiler);
+        }
+        compiler.emit(CONSTANT, 1, compiler.constant(null));
+        compiler.emit(RETURN, -1);
+        return compiler.chunk(flat);
+    }
+
+    private Chunk chunk(boolean flat) {
+        return new Chunk(Arrays.copyOf(code, count), constants.toArray(), maxRegisters, maxStack, flat);
+    }
+
+    // Whether any of these statements declares a function or class, whose closure needs every
+    // scope around it to be an Environment.
+    private static boolean captures(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (captures(statement)) return true;
+        }
+        return false;
+    }
+
+    private static boolean captures(Stmt stmt) {
+        return switch (stmt) {
+            case null -> false;
+            case Stmt.Function function -> true;
+            case Stmt.Class klass -> true;
+            case Stmt.Block block -> captures(block.statements);
+            case Stmt.If ifStmt -> captures(ifStmt.thenBranch) || captures(ifStmt.elseBranch);
+            case Stmt.While whileStmt -> captures(whileStmt.body) || captures(whileStmt.increment);
+            case Stmt.Try tryStmt -> captures(tryStmt.tryBlock) || captures(tryStmt.catchBlock) || captures(tryStmt.finallyBlock);
+            default -> false;
+        };
+    }
+
+    private void emit(int op, int stackEffect, int... operands) {
+        if (count + operands.length + 1 > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, count + operands.length + 1));
+        }
+        code[count++] = op;
+        for (int operand : operands) {
+            code[count++] = operand;
+        }
+        stackDepth += stackEffect;
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    private int constant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    // Emits a jump with a placeholder target and returns the position of the target for patching.
+    private int emitJump(int op, int stackEffect) {
+        emit(op, stackEffect, -1);
+        return count - 1;
+    }
+
+    private void patch(int operand) {
+        code[operand] = count;
+    }
+
+    // Code at a handler's target starts with the handler's value on top of the stack it saved.
+    private void landing(int depth) {
+        stackDepth = depth + 1;
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void openScope(String[] frame, boolean flat) {
+        if (!flat) {
+            scopes.add(-1);
+            return;
+        }
+        scopes.add(registers);
+        registers += frame.length;
+        maxRegisters = Math.max(maxRegisters, registers);
+    }
+
+    private void closeScope() {
+        int base = scopes.removeLast();
+        if (base >= 0) registers = base;
+    }
+
+    // The register of a variable the Resolver placed depth scopes out, or -1 if it is in an Environment.
+    private int register(int depth, int slot) {
+        int index = scopes.size() - 1 - depth;
+        if (index < 0 || scopes.get(index) < 0) return -1;
+        return scopes.get(index) + slot;
+    }
+
+    // How many Environments out from the innermost one that variable is. Scopes in registers are
+    // not on the chain, and every scope outside the chunk is.
+    private int environmentDepth(int depth) {
+        int environments = 0;
+        for (int i = 0; i < depth; i++) {
+            int index = scopes.size() - 1 - i;
+            if (index < 0 || scopes.get(index) < 0) environments++;
+        }
+        return environments;
+    }
+
+    private void load(int depth, int slot) {
+        int register = register(depth, slot);
+        if (register >= 0) {
+            emit(GET_REGISTER, 1, register);
+        } else {
+            emit(GET_LOCAL, 1, environmentDepth(depth), slot);
+        }
+    }
+
+    private void store(int depth, int slot) {
+        int register = register(depth, slot);
+        if (register >= 0) {
+            emit(SET_REGISTER, 0, register);
+        } else {
+            emit(SET_LOCAL, 0, environmentDepth(depth), slot);
+        }
+    }
+
+    // Emits what leaving every region from the given one outwards takes, innermost first: closing
+    // Environments, dropping handlers and running finally blocks.
+    private void exitRegionsTo(int depth) {
+        for (int i = regions.size() - 1; i >= depth; i--) {
+            Region region = regions.get(i);
+            switch (region.kind) {
+                case BLOCK -> emit(EXIT_BLOCK, 0);
+                case HANDLER -> emit(POP_HANDLER, 0);
+                case FINALLY -> inlineFinally(region, i);
+            }
+        }
+    }
+
+    // Compiles a copy of a finally block where a jump leaves its try statement, as if it stood at
+    // the try statement itself.
+    private void inlineFinally(Region region, int index) {
+        List<Integer> innerScopes = new ArrayList<>(scopes.subList(region.scopes, scopes.size()));
+        List<Region> innerRegions = new ArrayList<>(regions.subList(index, regions.size()));
+        int innerRegisters = registers;
+        Loop innerLoop = loop;
+
+        scopes.subList(region.scopes, scopes.size()).clear();
+        regions.subList(index, regions.size()).clear();
+        registers = region.registers;
+        loop = region.loop;
+
+        compile(region.body);
+
+        scopes.addAll(innerScopes);
+        regions.addAll(innerRegions);
+        registers = innerRegisters;
+        loop = innerLoop;
+    }
+
+    private boolean insideFinally() {
+        for (Region region : regions) {
+            if (region.kind == RegionKind.FINALLY) return true;
+        }
+        return false;
+    }
+
+    private int pushHandler(int kind) {
+        emit(PUSH_HANDLER, 0, -1, kind);
+        regions.add(new Region(RegionKind.HANDLER, null, 0, 0, null));
+        return count - 2;
+    }
+
+    private void popHandler() {
+        emit(POP_HANDLER, 0);
+        regions.removeLast();
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        boolean flat = !captures(stmt.statements);
+        if (!flat) {
+            emit(ENTER_BLOCK, 0, constant(stmt.frame));
+            regions.add(new Region(RegionKind.BLOCK, null, 0, 0, null));
+        }
+        openScope(stmt.frame, flat);
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        closeScope();
+        if (!flat) {
+            regions.removeLast();
+            emit(EXIT_BLOCK, 0);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitThrowStmt(Stmt.Throw stmt) {
+        compile(stmt.value);
+        emit(THROW, -1, constant(stmt));
+        return null;
+    }
+
+    // try { T } catch (e) { C } finally { F } runs T under a catch handler, inside a finally
+    // handler that covers C as well. F is compiled once for the normal path and once for an
+    // error, which it rethrows; jumps out of T or C get their own copy through exitRegionsTo.
+    @Override
+    public Void visitTryStmt(Stmt.Try stmt) {
+        int depth = stackDepth;
+        boolean catches = stmt.catchBlock instanceof Stmt.Block;
+
+        int finallyHandler = -1;
+        if (stmt.finallyBlock != null) {
+            regions.add(new Region(RegionKind.FINALLY, stmt.finallyBlock, scopes.size(), registers, loop));
+            finallyHandler = pushHandler(FINALLY);
+        }
+        int catchHandler = catches ? pushHandler(CATCH) : -1;
+
+        compile(stmt.tryBlock);
+
+        if (catches) {
+            popHandler();
+            int skip = emitJump(JUMP, 0);
+            patch(catchHandler);
+            landing(depth);
+            compileCatch(stmt, (Stmt.Block) stmt.catchBlock);
+            patch(skip);
+        }
+
+        if (stmt.finallyBlock != null) {
+            popHandler();
+            regions.removeLast();
+            compile(stmt.finallyBlock);
+            int end = emitJump(JUMP, 0);
+
+            patch(finallyHandler);
+            landing(depth);
+            compile(stmt.finallyBlock);
+            emit(RETHROW, -1);
+            patch(end);
+        }
+        return null;
+    }
+
+    // The catch body runs directly in the scope holding the error, which is slot 0.
+    private void compileCatch(Stmt.Try stmt, Stmt.Block block) {
+        boolean flat = !captures(block.statements);
+        if (!flat) {
+            emit(ENTER_BLOCK, 0, constant(stmt.catchFrame));
+            regions.add(new Region(RegionKind.BLOCK, null, 0, 0, null));
+        }
+        openScope(stmt.catchFrame, flat);
+        store(0, 0);
+        emit(POP, -1);
+        for (Stmt statement : block.statements) {
+            compile(statement);
+        }
+        closeScope();
+        if (!flat) {
+            regions.removeLast();
+            emit(EXIT_BLOCK, 0);
+        }
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        emit(EXEC, 0, constant(stmt));
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        // An assignment to a local as a statement stores without leaving the value behind.
+        if (stmt.expression instanceof Expr.Assign assign && assign.depth >= 0) {
+            compile(assign.value);
+            int register = register(assign.depth, assign.slot);
+            if (register >= 0) {
+                emit(STORE_REGISTER, -1, register);
+            } else {
+                emit(STORE_LOCAL, -1, environmentDepth(assign.depth), assign.slot);
+            }
+            return null;
+        }
+
+        compile(stmt.expression);
+        emit(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int elseJump = jumpUnless(stmt.condition);
+        compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            patch(elseJump);
+            return null;
+        }
+
+        int endJump = emitJump(JUMP, 0);
+        patch(elseJump);
+        compile(stmt.elseBranch);
+        patch(endJump);
+        return null;
+    }
+
+    // Emits a jump taken when the condition is false and returns its target for patching. A
+    // comparison jumps on its operands directly instead of pushing a Boolean to test.
+    private int jumpUnless(Expr condition) {
+        while (condition instanceof Expr.Grouping grouping) {
+            condition = grouping.expression;
+        }
+        if (condition instanceof Expr.Binary binary) {
+            int op = switch (binary.operator.type) {
+                case LESS -> JUMP_UNLESS_LESS;
+                case LESS_EQUAL -> JUMP_UNLESS_LESS_EQUAL;
+                case GREATER -> JUMP_UNLESS_GREATER;
+                case GREATER_EQUAL -> JUMP_UNLESS_GREATER_EQUAL;
+                default -> -1;
+            };
+            if (op >= 0) {
+                emitOperands(op, 0, binary, -1);
+                return count - 1;
+            }
+        }
+
+        compile(condition);
+        return emitJump(JUMP_IF_FALSE, -1);
+    }
+
+    // Emits an instruction on the two operands of a binary expression, letting it read registers
+    // and constants itself rather than having them pushed first.
+    private void emitOperands(int op, int pushes, Expr.Binary expr, int... extra) {
+        // The left operand is read after the right one is evaluated, which is only the same as
+        // reading it first when the right one cannot assign to it.
+        int left = simple(expr.right) ? operand(expr.left) : pushed(expr.left);
+        int right = operand(expr.right);
+        int pops = (left == STACK ? 1 : 0) + (right == STACK ? 1 : 0);
+
+        int[] operands = new int[3 + extra.length];
+        operands[0] = constant(expr);
+        operands[1] = left;
+        operands[2] = right;
+        System.arraycopy(extra, 0, operands, 3, extra.length);
+        emit(op, pushes - pops, operands);
+    }
+
+    private int operand(Expr expr) {
+        while (expr instanceof Expr.Grouping grouping) {
+            expr = grouping.expression;
+        }
+        if (expr instanceof Expr.Literal literal) {
+            return CONSTANT_OPERAND - constant(literal.value);
+        }
+        if (expr instanceof Expr.Variable variable && variable.depth >= 0) {
+            int register = register(variable.depth, variable.slot);
+            if (register >= 0) return register;
+        }
+        return pushed(expr);
+    }
+
+    private int pushed(Expr expr) {
+        compile(expr);
+        return STACK;
+    }
+
+    private static boolean simple(Expr expr) {
+        return switch (expr) {
+            case Expr.Literal literal -> true;
+            case Expr.Variable variable -> true;
+            case Expr.Grouping grouping -> simple(grouping.expression);
+            case Expr.Unary unary -> simple(unary.right);
+            case Expr.Binary binary -> simple(binary.left) && simple(binary.right);
+            default -> false;
+        };
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int start = count;
+        int exitJump = jumpUnless(stmt.condition);
+
+        loop = new Loop(loop, regions.size());
+        compile(stmt.body);
+
+        for (int operand : loop.continues) {
+            patch(operand);
+        }
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+        }
+        emit(JUMP, 0, start);
+
+        patch(exitJump);
+        for (int operand : loop.breaks) {
+            patch(operand);
+        }
+        loop = loop.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(CONSTANT, 1, constant(null));
+        }
+
+        int register = stmt.slot >= 0 ? register(0, stmt.slot) : -1;
+        if (register >= 0) {
+            emit(DEFINE_REGISTER, -1, register, constant(stmt));
+        } else {
+            emit(DEFINE_VAR, -1, constant(stmt));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        // 'return f(...)' outside any try statement runs f on this frame. When f turns out not to
+        // be a plain Gem function the call is made as usual and the RETURN after it is reached.
+        if (stmt.value instanceof Expr.Call call && call.tailCall) {
+            compileCall(call, TAIL_CALL);
+        } else if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(CONSTANT, 1, constant(null));
+        }
+
+        // Blocks and handlers go away with the frame; only finally blocks on the way out still run.
+        if (insideFinally()) {
+            exitRegionsTo(0);
+        }
+        emit(RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        emit(EXEC, 0, constant(stmt));
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        emit(EXEC, 0, constant(stmt));
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        exitRegionsTo(loop.regions);
+        loop.breaks.add(emitJump(JUMP, 0));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        exitRegionsTo(loop.regions);
+        loop.continues.add(emitJump(JUMP, 0));
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        if (expr.depth >= 0) {
+            store(expr.depth, expr.slot);
+        } else {
+            emit(SET_GLOBAL, 0, constant(expr.name));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        int op = switch (expr.operator.type) {
+            case PLUS -> ADD;
+            case MINUS -> SUBTRACT;
+            case STAR -> MULTIPLY;
+            case SLASH -> DIVIDE;
+            case PERCEN -> MODULO;
+            default -> BINARY;
+        };
+        emitOperands(op, 1, expr);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        emit(CONSTANT, 1, constant(expr.value));
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        int endJump = emitJump(expr.operator.type == TokenType.OR ? JUMP_IF_TRUE_KEEP : JUMP_IF_FALSE_KEEP, 0);
+        emit(POP, -1);
+        compile(expr.right);
+        patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        if (expr.operator.type == TokenType.BANG) {
+            emit(NOT, 0);
+        } else {
+            emit(NEGATE, 0, constant(expr));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            load(expr.depth, expr.slot);
+        } else {
+            emit(GET_NAME, 1, constant(expr.name.lexeme));
+        }
+        return null;
+    }
+
+    // Arguments are evaluated before the callee, and for obj.m(args) the receiver comes last. A
+    // named callee is looked up the way the Interpreter does it: the local overload, then the
+    // global overload or native, then the plain name.
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compileCall(expr, CALL);
+        return null;
+    }
+
+    private void compileCall(Expr.Call expr, int callOp) {
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+
+        int argc = expr.arguments.size();
+        int index = constant(expr);
+        if (expr.callee instanceof Expr.Get getExpr) {
+            compile(getExpr.object);
+            emit(INVOKE, -argc, index, argc);
+            return;
+        }
+        if (!(expr.callee instanceof Expr.Variable varExpr)) {
+            compile(expr.callee);
+            emit(CALL_VALUE, -argc, index, argc);
+            return;
+        }
+
+        if (expr.depth >= 0) {
+            load(expr.depth, expr.slot);
+        } else {
+            emit(GLOBAL_CALLEE, 0, index, -1);
+            int found = count - 1;
+            if (varExpr.depth >= 0) {
+                load(varExpr.depth, varExpr.slot);
+            } else {
+                emit(NAMED_CALLEE, 1, index);
+            }
+            patch(found);
+        }
+        emit(callOp, -argc, index, argc);
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        emit(GET_PROPERTY, 0, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        int index = constant(expr);
+        emit(CHECK_SET, 0, index);
+        compile(expr.value);
+        emit(SET_PROPERTY, -1, index);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        if (expr.depth >= 0) {
+            load(expr.depth, expr.slot);
+        } else {
+            emit(GET_NAME, 1, constant(expr.keyword.lexeme));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        if (expr.depth >= 0) {
+            load(expr.depth, expr.slot);
+        } else {
+            emit(GET_NAME, 1, constant(expr.keyword.lexeme));
+        }
+        if (expr.thisDepth >= 0) {
+            load(expr.thisDepth, expr.thisSlot);
+        } else {
+            emit(CONSTANT, 1, constant(null));
+        }
+        emit(SUPER, -1, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitGetIndexExpr(Expr.GetIndex expr) {
+        compile(expr.object);
+        compile(expr.indexStart);
+        compile(expr.indexEnd);
+        emit(GET_INDEX, -2, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        emit(SET_INDEX, -2, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        for (Expr element : expr.elements) {
+            compile(element);
+        }
+        emit(LIST, 1 - expr.elements.size(), expr.elements.size());
+        return null;
+    }
+}
@@ -0,0 +1,68 @@
+package com.interpreter.gem;
+
+import java.util.Arrays;
+
+// Call sites of the Gem calls in progress, innermost last. Each entry is the callee's name token
+// from the call expression, which the AST already holds, so making a call costs one array store
+// and popping it one decrement. The "at name (file:line)" lines are only built when a raised
+// error's trace is actually read.
+public class CallStack {
+    private Token[] sites = new Token[64];
+    private int size = 0;
+
+    void push(Token site) {
+        if (size == sites.length) {
+            sites = Arrays.copyOf(sites, size * 2);
+        }
+        sites[size++] = site;
+    }
+
+    void pop() {
+        sites[--size] = null;
+    }
+
+    // A tail call takes over the entry of the one before it, so a chain of them keeps a single
+    // entry however long it runs.
+    void replace(Token site) {
+        sites[size - 1] = site;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Drops the entries of calls that an error unwound past, back to what a try block saw on entry.
+    void unwind(int depth) {
+        Arrays.fill(sites, depth, size, null);
+        size = depth;
+    }
+
+    // The trace for an error raised at origin. Only the call sites are copied here; the text is
+    // built the first time the error's stackTrace field is read.
+    Trace capture(Token origin) {
+        return new Trace(origin, Arrays.copyOf(sites, size));
+    }
+
+    static final class Trace {
+        private final Token origin;
+        private final Token[] sites;
+
+        private Trace(Token origin, Token[] sites) {
+            this.origin = origin;
+            this.sites = sites;
+        }
+
+        // The raising line first, then every call site from the innermost out.
+        @Override
+        public String toString() {
+            StringBuilder trace = new StringBuilder();
+            trace.append("\tat (").append(origin.sourceFile.getFileName()).append(":").append(origin.line).append(")");
+            for (int i = sites.length - 1; i >= 0; i--) {
+                Token site = sites[i];
+                trace.append("\n\tat ").append(site.lexeme)
+                        .append(" (").append(site.sourceFile.getFileName()).append(":").append(site.line).append(")");
+            }
+            return trace.toString();
+        }
+    }
+}
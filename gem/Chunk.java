@@ -0,0 +1,84 @@
+package com.interpreter.gem;
+
+// Compiled form of a statement list: flat instruction stream, its constant pool, how many registers
+// it uses and the deepest the operand stack gets, so the VM can size a frame once per call.
+public class Chunk {
+    // Opcodes. Operands follow inline in the code array.
+    static final int CONSTANT = 0;          // index
+    static final int POP = 1;
+    static final int GET_REGISTER = 2;      // register
+    static final int SET_REGISTER = 3;      // register
+    static final int STORE_REGISTER = 4;    // register, popping the value
+    static final int DEFINE_REGISTER = 5;   // register, index of Stmt.Var
+    static final int GET_LOCAL = 6;         // depth, slot
+    static final int SET_LOCAL = 7;         // depth, slot
+    static final int STORE_LOCAL = 8;       // depth, slot, popping the value
+    static final int DEFINE_VAR = 9;        // index of Stmt.Var
+    static final int GET_NAME = 10;         // index of name
+    static final int SET_GLOBAL = 11;       // index of token
+    static final int ENTER_BLOCK = 12;      // index of frame layout
+    static final int EXIT_BLOCK = 13;
+    static final int JUMP = 14;             // target
+    static final int JUMP_IF_FALSE = 15;    // target
+    static final int JUMP_IF_FALSE_KEEP = 16; // target
+    static final int JUMP_IF_TRUE_KEEP = 17; // target
+    static final int JUMP_UNLESS_LESS = 18; // index of Expr.Binary, left, right, target
+    static final int JUMP_UNLESS_LESS_EQUAL = 19; // index of Expr.Binary, left, right, target
+    static final int JUMP_UNLESS_GREATER = 20; // index of Expr.Binary, left, right, target
+    static final int JUMP_UNLESS_GREATER_EQUAL = 21; // index of Expr.Binary, left, right, target
+    static final int ADD = 22;              // index of Expr.Binary, left, right
+    static final int SUBTRACT = 23;         // index of Expr.Binary, left, right
+    static final int MULTIPLY = 24;         // index of Expr.Binary, left, right
+    static final int DIVIDE = 25;           // index of Expr.Binary, left, right
+    static final int MODULO = 26;           // index of Expr.Binary, left, right
+    static final int BINARY = 27;           // index of Expr.Binary, left, right: every other operator
+    static final int NEGATE = 28;           // index of Expr.Unary
+    static final int NOT = 29;
+    static final int GLOBAL_CALLEE = 30;    // index of Expr.Call, target once found
+    static final int NAMED_CALLEE = 31;     // index of Expr.Call
+    static final int CALL = 32;             // index of Expr.Call, argument count
+    static final int TAIL_CALL = 33;        // index of Expr.Call, argument count; RETURN follows
+    static final int CALL_VALUE = 34;       // index of Expr.Call, argument count
+    static final int INVOKE = 35;           // index of Expr.Call, argument count
+    static final int GET_PROPERTY = 36;     // index of Expr.Get
+    static final int CHECK_SET = 37;        // index of Expr.Set
+    static final int SET_PROPERTY = 38;     // index of Expr.Set
+    static final int SUPER = 39;            // index of Expr.Super
+    static final int GET_INDEX = 40;        // index of Expr.GetIndex
+    static final int SET_INDEX = 41;        // index of Expr.SetIndex
+    static final int LIST = 42;             // element count
+    static final int EXEC = 43;             // index of Stmt
+    static final int THROW = 44;            // index of Stmt.Throw
+    static final int RETHROW = 45;
+    static final int PUSH_HANDLER = 46;     // target, CATCH or FINALLY
+    static final int POP_HANDLER = 47;
+    static final int RETURN = 48;
+    static final int END = 49;
+
+    // Operands of arithmetic and comparisons: a register when >= 0, STACK when the value was
+    // pushed, or constant k encoded as CONSTANT_OPERAND - k.
+    static final int STACK = -1;
+    static final int CONSTANT_OPERAND = -2;
+
+    // What a handler pushes before jumping to its target: the thrown error object for a catch
+    // block, the GemThrow itself for a finally block, which rethrows it when it is done.
+    static final int CATCH = 0;
+    static final int FINALLY = 1;
+
+    final int[] code;
+    final Object[] constants;
+    // Registers come first in a frame's slots, the operand stack after them.
+    final int registers;
+    final int maxStack;
+    // Whether the function's own frame (receiver, parameters, top-level locals) is kept in
+    // registers 0..n rather than in an Environment, which only nested declarations need.
+    final boolean flat;
+
+    Chunk(int[] code, Object[] constants, int registers, int maxStack, boolean flat) {
+        this.code = code;
+        this.constants = constants;
+        this.registers = registers;
+        this.maxStack = maxStack;
+        this.flat = flat;
+    }
+}
@@ -17,12 +17,11 @@ public class DeferredCallable implements GemCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        String mangled = Interpreter.mangleName(name, arguments.size());
-        GemFunction method = instance.klass.findMethod(mangled);
+        GemFunction method = instance.klass.findMethod(name, arguments.size());
         if (method == null) {
             Interpreter.runtimeError(keyword, "No method '" + name + "' with " + arguments.size() + " args.", "NameError");
         }
-        return method.bind(instance).call(interpreter, arguments);
+        return method.invoke(interpreter, instance, arguments);
     }
 
     @Override
@@ -17,12 +17,11 @@ public class DeferredStaticCallable implements GemCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        String mangled = Interpreter.mangleName(name, arguments.size());
-        GemFunction method = klass.getStaticMethod(mangled);
+        GemFunction method = klass.getStaticMethod(name, arguments.size());
         if (method == null) {
             Interpreter.runtimeError(keyword, "No method '" + name + "' with " + arguments.size() + " args.", "NameError");
         }
-        return method.staticBind().call(interpreter, arguments);
+        return method.call(interpreter, arguments);
     }
 
     @Override
@@ -17,9 +17,7 @@ public class DeferredSuperCallable implements GemCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        String mangled = Interpreter.mangleName(methodName, arguments.size());
-
-        GemFunction method = superclass.findMethod(mangled);
+        GemFunction method = superclass.findMethod(methodName, arguments.size());
         if (method == null) {
             Interpreter.runtimeError(
                     keyword,
@@ -28,7 +26,7 @@ public class DeferredSuperCallable implements GemCallable {
             );
         }
 
-        return method.bind(instance).call(interpreter, arguments);
+        return method.invoke(interpreter, instance, arguments);
     }
 
 
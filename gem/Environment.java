@@ -4,45 +4,94 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class Environment{
-	public final Map<String, Object> values = new HashMap<>();
+	static final String[] NO_SLOTS = new String[0];
+	static final String[] SUPER_SLOTS = {"super"};
+
+	// Globals are keyed by name. Every other scope is a fixed-size frame laid out by the Resolver,
+	// with names kept only for the few lookups that are still done by name.
+	public final Map<String, Object> values;
+	final Object[] slots;
+	final String[] names;
 	final Environment enclosing;
+	// The map-backed frame at the end of the chain, for names the Resolver left to be found at run time.
+	final Environment globals;
 
 	Environment(){
-		enclosing = null;
+		this.values = new HashMap<>();
+		this.slots = null;
+		this.names = NO_SLOTS;
+		this.enclosing = null;
+		this.globals = this;
 	}
 
-	Environment(Environment enclosing){
+	Environment(Environment enclosing, String[] names){
+		this.values = null;
+		this.slots = new Object[names.length];
+		this.names = names;
 		this.enclosing = enclosing;
+		this.globals = enclosing.globals;
 	}
 
 	void define(String name, Object value){
-		values.put(name, value);
+		if(values != null){
+			values.put(name, value);
+			Jit.rebound(name);
+			return;
+		}
+
+		int slot = indexOf(name);
+		if(slot < 0){
+			throw new IllegalStateException("No slot for '" + name + "' in this frame.");
+		}
+		slots[slot] = value;
+	}
+
+	void define(int slot, Object value){
+		slots[slot] = value;
+	}
+
+	private int indexOf(String name){
+		for(int i = 0; i < names.length; i++){
+			if(names[i].equals(name)) return i;
+		}
+		return -1;
 	}
 
 	public Object get(Token name){
-		if(values.containsKey(name.lexeme)){
-			return values.get(name.lexeme);
+		for(Environment environment = this; environment != null; environment = environment.enclosing){
+			if(environment.values != null){
+				if(environment.values.containsKey(name.lexeme)) return environment.values.get(name.lexeme);
+				continue;
+			}
+			int slot = environment.indexOf(name.lexeme);
+			if(slot >= 0) return environment.slots[slot];
 		}
 
-		if(enclosing != null) return enclosing.get(name);
 		Interpreter.runtimeError(name, "Undefined variable '" + name.lexeme + "'.", "NameError");
-
 		return null;
 	}
 
 	public Object get(String name){
-		if(values.containsKey(name)){
-			return values.get(name);
+		for(Environment environment = this; environment != null; environment = environment.enclosing){
+			if(environment.values != null){
+				if(environment.values.containsKey(name)) return environment.values.get(name);
+				continue;
+			}
+			int slot = environment.indexOf(name);
+			if(slot >= 0) return environment.slots[slot];
 		}
 
-		if(enclosing != null) return enclosing.get(name);
-
 		return null;
 	}
 
+	private Object lookup(String name){
+		if(values != null) return values.get(name);
+		return slots[indexOf(name)];
+	}
+
 	void assign(Token name, Object value){
-		if(values.containsKey(name.lexeme)){
-			values.put(name.lexeme, value);
+		if(exists(name.lexeme)){
+			define(name.lexeme, value);
 			return;
 		}
 
@@ -55,18 +104,19 @@ public class Environment{
 	}
 
 	public boolean exists(String name) {
-		return values.containsKey(name);
+		if(values != null) return values.containsKey(name);
+		return indexOf(name) >= 0;
 	}
 
 
 	Object getOrNull(Token name) {
-		if (values.containsKey(name.lexeme)) return values.get(name.lexeme);
+		if (exists(name.lexeme)) return lookup(name.lexeme);
 		if (enclosing != null) return enclosing.getOrNull(name);
 		return null;
 	}
 
-	Object getAt(int distance, String name){
-		return ancestor(distance).values.get(name);
+	Object getAt(int distance, int slot){
+		return ancestor(distance).slots[slot];
 	}
 
 	Environment ancestor(int distance){
@@ -77,8 +127,8 @@ public class Environment{
 		return environment;
 	}
 
-	void assignAt(int distance,Token name, Object value){
-		ancestor(distance).values.put(name.lexeme, value);
+	void assignAt(int distance, int slot, Object value){
+		ancestor(distance).slots[slot] = value;
 	}
 
 }
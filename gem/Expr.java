@@ -31,8 +31,21 @@ abstract class Expr {
 		return visitor.visitAssignExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitAssignExpr(this);
+	}
+
+	@Override
+	int line(){
+		return name == null ? -1 : name.line;
+	}
+
     final Token name;
     final Expr value;
+
+    int depth = -1;
+    int slot = -1;
   }
   static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -46,9 +59,21 @@ abstract class Expr {
 		return visitor.visitBinaryExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitBinaryExpr(this);
+	}
+
+	@Override
+	int line(){
+		return operator == null ? -1 : operator.line;
+	}
+
     final Expr left;
     final Token operator;
     final Expr right;
+
+    BinaryNode specialization = BinaryNode.UNINITIALIZED;
   }
   static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -60,6 +85,16 @@ abstract class Expr {
 		return visitor.visitGroupingExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitGroupingExpr(this);
+	}
+
+	@Override
+	int line(){
+		return expression == null ? -1 : expression.line();
+	}
+
     final Expr expression;
   }
   static class Literal extends Expr {
@@ -72,6 +107,16 @@ abstract class Expr {
 		return visitor.visitLiteralExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitLiteralExpr(this);
+	}
+
+	@Override
+	int line(){
+		return -1;
+	}
+
     final Object value;
   }
   static class Logical extends Expr {
@@ -86,6 +131,16 @@ abstract class Expr {
 		return visitor.visitLogicalExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitLogicalExpr(this);
+	}
+
+	@Override
+	int line(){
+		return operator == null ? -1 : operator.line;
+	}
+
     final Expr left;
     final Token operator;
     final Expr right;
@@ -101,6 +156,16 @@ abstract class Expr {
 		return visitor.visitUnaryExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitUnaryExpr(this);
+	}
+
+	@Override
+	int line(){
+		return operator == null ? -1 : operator.line;
+	}
+
     final Token operator;
     final Expr right;
   }
@@ -115,8 +180,21 @@ abstract class Expr {
 		return visitor.visitVariableExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitVariableExpr(this);
+	}
+
+	@Override
+	int line(){
+		return name == null ? -1 : name.line;
+	}
+
     final Token name;
     final String parent;
+
+    int depth = -1;
+    int slot = -1;
   }
   static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -130,9 +208,24 @@ abstract class Expr {
 		return visitor.visitCallExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitCallExpr(this);
+	}
+
+	@Override
+	int line(){
+		return paren == null ? -1 : paren.line;
+	}
+
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+
+    String mangledName = null;
+    int depth = -1;
+    int slot = -1;
+    boolean tailCall = false;
   }
   static class Get extends Expr {
     Get(Expr object, Token name) {
@@ -145,8 +238,20 @@ abstract class Expr {
 		return visitor.visitGetExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitGetExpr(this);
+	}
+
+	@Override
+	int line(){
+		return name == null ? -1 : name.line;
+	}
+
     final Expr object;
     final Token name;
+
+    InlineCache cache;
   }
   static class Set extends Expr {
     Set(Expr object, Token name, Expr value) {
@@ -160,9 +265,21 @@ abstract class Expr {
 		return visitor.visitSetExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitSetExpr(this);
+	}
+
+	@Override
+	int line(){
+		return name == null ? -1 : name.line;
+	}
+
     final Expr object;
     final Token name;
     final Expr value;
+
+    InlineCache cache;
   }
   static class This extends Expr {
     This(Token keyword) {
@@ -174,7 +291,20 @@ abstract class Expr {
 		return visitor.visitThisExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitThisExpr(this);
+	}
+
+	@Override
+	int line(){
+		return keyword == null ? -1 : keyword.line;
+	}
+
     final Token keyword;
+
+    int depth = -1;
+    int slot = -1;
   }
   static class Super extends Expr {
     Super(Token keyword, Token method) {
@@ -187,8 +317,23 @@ abstract class Expr {
 		return visitor.visitSuperExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitSuperExpr(this);
+	}
+
+	@Override
+	int line(){
+		return keyword == null ? -1 : keyword.line;
+	}
+
     final Token keyword;
     final Token method;
+
+    int depth = -1;
+    int slot = -1;
+    int thisDepth = -1;
+    int thisSlot = -1;
   }
   static class GetIndex extends Expr {
     GetIndex(Expr object, Expr indexStart, Expr indexEnd, Token bracket) {
@@ -203,6 +348,16 @@ abstract class Expr {
 		return visitor.visitGetIndexExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitGetIndexExpr(this);
+	}
+
+	@Override
+	int line(){
+		return bracket == null ? -1 : bracket.line;
+	}
+
     final Expr object;
     final Expr indexStart;
     final Expr indexEnd;
@@ -221,6 +376,16 @@ abstract class Expr {
 		return visitor.visitSetIndexExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitSetIndexExpr(this);
+	}
+
+	@Override
+	int line(){
+		return bracket == null ? -1 : bracket.line;
+	}
+
     final Expr object;
     final Expr index;
     final Expr value;
@@ -236,8 +401,28 @@ abstract class Expr {
 		return visitor.visitListLiteralExpr(this);
 	}
 
+	@Override
+	Object execute(Interpreter interpreter){
+		return interpreter.visitListLiteralExpr(this);
+	}
+
+	@Override
+	int line(){
+		return -1;
+	}
+
     final List<Expr> elements;
   }
 
 	abstract <R> R accept(Visitor<R> visitor);
+
+	// Direct entry for the Interpreter: one virtual call on the node, landing straight in the
+	// interpreter's method instead of going through the Visitor interface.
+	abstract Object execute(Interpreter interpreter);
+
+	// Source line for profiles, or -1 when the node carries no token.
+	abstract int line();
+
+	// Times the Interpreter ran this node while profiling was on.
+	long executions;
 }
@@ -27,12 +27,22 @@ public class Gem {
 		pid = ProcessHandle.current().pid();
 		System.out.println("JAR_PID:" + pid);
 
-		if (args.length > 1) {
-			System.err.println("Usage: gem [script]");
+		List<String> scripts = new ArrayList<>();
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				scripts.add(arg);
+			} else if (!parseOption(arg)) {
+				System.err.println("Unknown option '" + arg + "'.");
+				System.exit(64);
+			}
+		}
+
+		if (scripts.size() > 1) {
+			System.err.println("Usage: gem [options] [script]");
 			System.exit(64);
-		} else if (args.length == 1) {
-			currentSourceFile = Paths.get(args[0]);
-			runFile(args[0]);
+		} else if (scripts.size() == 1) {
+			currentSourceFile = Paths.get(scripts.getFirst());
+			runFile(scripts.getFirst());
 		} else {
 			runPrompt();
 		}
@@ -40,6 +50,52 @@ public class Gem {
 		System.exit(0);
 	}
 
+	private static boolean parseOption(String option) {
+		switch (option) {
+			case "--stats" -> {
+				// Scripts usually leave through System.exit, so the counters are printed from a shutdown hook.
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					System.err.println(InlineCache.stats());
+					System.err.println(BinaryNode.stats());
+					System.err.println(Optimizer.stats());
+					System.err.println(Jit.stats());
+				}));
+			}
+			case "--engine=tree" -> Interpreter.useVm = false;
+			case "--engine=vm" -> Interpreter.useVm = true;
+			case "--profile" -> {
+				Interpreter.profile = true;
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.println(Interpreter.profileReport())));
+			}
+			case "--no-jit" -> Jit.enabled = false;
+			case "--jit-log" -> Jit.log = true;
+			case "--no-cache" -> Interpreter.cacheDirectory = null;
+			default -> {
+				if (option.startsWith("--cache-dir=")) {
+					Interpreter.cacheDirectory = Paths.get(option.substring("--cache-dir=".length()));
+					return true;
+				}
+				if (option.startsWith("--plugins=")) {
+					NativeRegistry.pluginDirectory = Paths.get(option.substring("--plugins=".length()));
+					return true;
+				}
+				return option.startsWith("--max-depth=") && parseMaxDepth(option.substring("--max-depth=".length()));
+			}
+		}
+		return true;
+	}
+
+	private static boolean parseMaxDepth(String value) {
+		try {
+			int depth = Integer.parseInt(value);
+			if (depth <= 0) return false;
+			Interpreter.maxDepth = depth;
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
 	private static void runFile(String path) throws IOException {
 		byte[] bytes = Files.readAllBytes(Paths.get(path));
 		run(new String(bytes, Charset.defaultCharset()));
@@ -77,7 +133,7 @@ public class Gem {
 		Parser importParser = new Parser(importTokens, currentSourceFile);
 		List<Stmt> importStmts = importParser.parse();
 
-		interpreter.interpret(importStmts);
+		interpreter.interpretPrelude(importStmts);
 		Interpreter.setWrappers(
 				(GemClass) interpreter.globals.get("String"),
 				(GemClass) interpreter.globals.get("Number"),
@@ -110,6 +166,8 @@ public class Gem {
 			return;
 		}
 
+		statements = new Optimizer(interpreter).optimize(statements);
+
 		//NOW COMES THE PROTAGONIST
 		interpreter.interpret(statements);
 	}
@@ -2,16 +2,47 @@ package com.interpreter.gem;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class GemClass implements GemCallable{
+    // What the interpreter treats the class as. The wrapper kinds are assigned once by
+    // Interpreter.setWrappers, so type tests compare this field instead of class names.
+    enum Kind {
+        STRING(true), NUMBER(true), BOOLEAN(true), LIST(true), ERROR(false), USER(false);
+
+        // Instances are wrappers around a raw value held in '#value'.
+        final boolean wrapper;
+
+        Kind(boolean wrapper) {
+            this.wrapper = wrapper;
+        }
+    }
+
     final private String name;
+    Kind kind = Kind.USER;
+    // The registered error class or any of its subclasses. Inherited when the class is created; the
+    // prelude's own error classes exist before setWrappers tags the base one, so it settles theirs.
+    private boolean error;
     public final Map<String, GemFunction> methods;
     final GemClass superclass;
     public final Map<String, GemFunction> staticMethods;
     public final Map<String, Object> staticFields;
     public final Path currentSourceFile;
+    final Shape rootShape = new Shape(this);
+    int expectedFields = 0;
+
+    // Flattened method tables built once per class: base name -> methods indexed by arity,
+    // with inherited methods already resolved so lookups never walk the superclass chain.
+    private final Map<String, GemFunction[]> methodTable;
+    private final Map<String, GemFunction[]> staticMethodTable;
+    // Overload checks only ever looked at the class's own declarations, so those are kept separately.
+    private final Set<String> declaredMethods;
+    private final Set<String> declaredStaticMethods;
 
     GemClass(String name, GemClass superclass, Map<String, GemFunction> methods, Map<String, GemFunction> staticMethods, Map<String, Object> staticFields, Path currentFile) {
         this.name = name;
@@ -20,11 +51,54 @@ public class GemClass implements GemCallable{
         this.staticMethods = staticMethods;
         this.staticFields = staticFields;
         this.currentSourceFile = currentFile;
+        this.error = superclass != null && superclass.error;
+
+        this.methodTable = flatten(superclass == null ? Map.of() : superclass.methodTable, methods);
+        this.staticMethodTable = flatten(superclass == null ? Map.of() : superclass.staticMethodTable, staticMethods);
+        this.declaredMethods = baseNames(methods);
+        this.declaredStaticMethods = baseNames(staticMethods);
 
-        List<Object> keyset = new ArrayList<>(methods.keySet());
+        Set<Object> keyset = new HashSet<>(methods.keySet());
         Interpreter.scopes.put(name, keyset);
     }
 
+    private static Map<String, GemFunction[]> flatten(Map<String, GemFunction[]> inherited, Map<String, GemFunction> declared) {
+        Map<String, GemFunction[]> table = new HashMap<>(inherited);
+        for (Map.Entry<String, GemFunction> entry : declared.entrySet()) {
+            String mangled = entry.getKey();
+            int split = mangled.lastIndexOf('$');
+            String baseName = mangled.substring(0, split);
+            int arity = Integer.parseInt(mangled.substring(split + 1));
+
+            // Copy rather than write through, the superclass still owns the inherited array.
+            GemFunction[] overloads = table.get(baseName);
+            overloads = overloads == null ? new GemFunction[arity + 1] : Arrays.copyOf(overloads, Math.max(overloads.length, arity + 1));
+            overloads[arity] = entry.getValue();
+            table.put(baseName, overloads);
+        }
+        return table;
+    }
+
+    private static Set<String> baseNames(Map<String, GemFunction> declared) {
+        Set<String> names = new HashSet<>();
+        for (String mangled : declared.keySet()) {
+            names.add(mangled.substring(0, mangled.lastIndexOf('$')));
+        }
+        return names;
+    }
+
+    private static GemFunction lookup(Map<String, GemFunction[]> table, String baseName, int arity) {
+        GemFunction[] overloads = table.get(baseName);
+        if (overloads == null || arity >= overloads.length) return null;
+        return overloads[arity];
+    }
+
+    private static GemFunction lookup(Map<String, GemFunction[]> table, String mangled) {
+        int split = mangled.lastIndexOf('$');
+        if (split < 0) return null;
+        return lookup(table, mangled.substring(0, split), Integer.parseInt(mangled.substring(split + 1)));
+    }
+
     @Override
     public String toString() {
         return name;
@@ -39,11 +113,10 @@ public class GemClass implements GemCallable{
 
         GemInstance instance = new GemInstance(this);
 
-        String mangled = Interpreter.mangleName("init", arguments.size());
-        GemFunction initializer = findMethod(mangled);
+        GemFunction initializer = findMethod("init", arguments.size());
 
         if (initializer != null){
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
             return instance;
         }
 
@@ -57,11 +130,10 @@ public class GemClass implements GemCallable{
     public Object call(Interpreter interpreter, List<Object> arguments, boolean force) {
         GemInstance instance = new GemInstance(this);
 
-        String mangled = Interpreter.mangleName("#init", arguments.size());
-        GemFunction initializer = findMethod(mangled);
+        GemFunction initializer = findMethod("#init", arguments.size());
 
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
         }
 
         return instance;
@@ -69,21 +141,11 @@ public class GemClass implements GemCallable{
 
 
     public boolean hasOverloadedMethod(String baseName) {
-        for (String methodName : methods.keySet()) {
-            if (methodName.equals(baseName) || methodName.startsWith(baseName + "$")) {
-                return true;
-            }
-        }
-        return false;
+        return declaredMethods.contains(baseName);
     }
 
     public boolean hasOverloadedStaticMethod(String baseName) {
-        for (String methodName : staticMethods.keySet()) {
-            if (methodName.equals(baseName) || methodName.startsWith(baseName + "$")) {
-                return true;
-            }
-        }
-        return false;
+        return declaredStaticMethods.contains(baseName);
     }
 
     @Override
@@ -101,23 +163,19 @@ public class GemClass implements GemCallable{
     }
 
     public GemFunction findMethod(String name) {
-        if(methods.containsKey(name)) {
-            return methods.get(name);
-        }
-        if(superclass != null) {
-            return superclass.findMethod(name);
-        }
-        return null;
+        return lookup(methodTable, name);
+    }
+
+    public GemFunction findMethod(String baseName, int arity) {
+        return lookup(methodTable, baseName, arity);
     }
 
     public GemFunction getStaticMethod(String name){
-        if(staticMethods.containsKey(name)) {
-            return staticMethods.get(name);
-        }
-        if(superclass != null) {
-            return superclass.getStaticMethod(name);
-        }
-        return null;
+        return lookup(staticMethodTable, name);
+    }
+
+    public GemFunction getStaticMethod(String baseName, int arity){
+        return lookup(staticMethodTable, baseName, arity);
     }
 
     public Object getStaticField(String name){
@@ -140,10 +198,16 @@ public class GemClass implements GemCallable{
     }
 
     public boolean isError(){
-        if(this.name().equals("RuntimeError"))
-            return true;
-        if(superclass != null)
-            return superclass.isError();
-        return false;
+        return error;
+    }
+
+    // Run by setWrappers on the classes defined before it tagged the error class.
+    void settleError(){
+        for (GemClass klass = this; klass != null; klass = klass.superclass) {
+            if (klass.kind == Kind.ERROR) {
+                error = true;
+                return;
+            }
+        }
     }
 }
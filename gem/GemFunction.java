@@ -3,36 +3,117 @@ package com.interpreter.gem;
 import java.util.List;
 
 public class GemFunction implements GemCallable{
-	private final Stmt.Function declaration;
-	private final Environment closure;
+	final Stmt.Function declaration;
+	final Environment closure;
 	private final boolean isInitializer;
 	public final String parent;
+	// Set only on bound methods that are passed around as values; method calls pass the receiver to invoke.
+	private final GemInstance receiver;
+	// Whether calls unwrap the arguments as they do for natives: anything whose description says "native".
+	final boolean rawArguments;
+	// Interpreted calls so far, and the compiled code once Jit has produced some.
+	int calls = 0;
+	Jit.Code jitCode;
 
 	GemFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, String currentClass){
+		this(declaration, closure, isInitializer, currentClass, null);
+	}
+
+	private GemFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, String currentClass, GemInstance receiver){
 		this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
         this.parent = currentClass;
+        this.receiver = receiver;
+        this.rawArguments = declaration.name.lexeme.contains("native");
     }
 
 	@Override
 	public Object call(Interpreter interpreter, List<Object> arguments){
-		Environment environment = new Environment(closure);
-		for(int i = 0; i < declaration.params.size(); i++){
-			environment.define(declaration.params.get(i).lexeme, arguments.get(i));
-		}
-		try {
-			interpreter.executeBlock(declaration.body, environment, parent);
-		}catch(Return returnValue){
-			if(isInitializer){
-				return closure.getAt(0, "this");
+		return invoke(interpreter, receiver, arguments);
+	}
+
+	public Object invoke(Interpreter interpreter, GemInstance receiver, List<Object> arguments){
+		// Tail calls come back as TAIL_CALL and run here in turn, so a chain of them takes no Java stack.
+		// The chain shares one stack trace entry, which each tail call takes over from the one before.
+		// Bodies run from this loop rather than a helper of their own: on the tree engine every Java
+		// frame a Gem call adds comes off the recursion depth the thread's stack allows.
+		GemFunction function = this;
+		boolean tailed = false;
+		while(true){
+			Object value = function.runCompiled(arguments);
+			if(value == null && Interpreter.useVm){
+				value = interpreter.vm().invoke(function, receiver, arguments);
+			}else if(value == null){
+				Environment environment = function.enter(interpreter, receiver, arguments);
+				try{
+					Interpreter.Completion completion = interpreter.executeBlock(function.declaration.body, environment, function.parent);
+					if(completion == Interpreter.Completion.RETURN){
+						value = interpreter.returnValue;
+						interpreter.returnValue = null;
+					}
+					value = function.result(receiver, value);
+				}catch(StackOverflowError e){
+					// The Java stack ran out before --max-depth did; report it as the same Gem error.
+					interpreter.stackOverflow(function.declaration.name, "Java stack exhausted at call depth " + interpreter.callDepth
+							+ "; the VM engine (--engine=vm) keeps Gem calls off the Java stack.");
+				}finally{
+					interpreter.callDepth--;
+				}
 			}
-			return returnValue.value;
+			if(value != Interpreter.TAIL_CALL){
+				if(tailed){
+					Interpreter.callStack.pop();
+				}
+				return value;
+			}
+
+			function = interpreter.tailCallee;
+			receiver = function.receiver;
+			arguments = interpreter.tailArguments;
+			if(tailed){
+				Interpreter.callStack.replace(interpreter.tailSite);
+			}else{
+				Interpreter.callStack.push(interpreter.tailSite);
+				tailed = true;
+			}
+			interpreter.tailCallee = null;
+			interpreter.tailArguments = null;
+			interpreter.tailSite = null;
+		}
+	}
+
+	// The result of compiled code for this call, or null when it has to be interpreted.
+	Object runCompiled(List<Object> arguments){
+		if(jitCode != null || ++calls == Jit.THRESHOLD){
+			return Jit.run(this, arguments);
 		}
-		if (isInitializer) return closure.getAt(0, "this");
 		return null;
 	}
 
+	// Counts the call against --max-depth and lays out its frame.
+	Environment enter(Interpreter interpreter, GemInstance receiver, List<Object> arguments){
+		interpreter.enterCall(declaration.name);
+		Environment environment = new Environment(closure, declaration.frame);
+		int first = 0;
+		if(declaration.hasReceiver){
+			environment.define(0, receiver);
+			first = 1;
+		}
+		for(int i = 0; i < declaration.params.size(); i++){
+			environment.define(first + i, arguments.get(i));
+		}
+		return environment;
+	}
+
+	Object result(GemInstance receiver, Object value){
+		return isInitializer ? receiver : value;
+	}
+
+	GemInstance receiver(){
+		return receiver;
+	}
+
 	@Override
 	public int arity(){
 		return declaration.params.size();
@@ -49,14 +130,6 @@ public class GemFunction implements GemCallable{
 	}
 
 	public GemFunction bind(GemInstance instance) {
-		Environment environment = new Environment(closure);
-		environment.define("this", instance);
-		return new GemFunction(declaration, environment, isInitializer, parent);
-	}
-
-	public GemFunction staticBind() {
-		Environment environment = new Environment(closure);
-		environment.define("hum" , "hi");
-		return new GemFunction(declaration, environment, isInitializer, parent);
+		return new GemFunction(declaration, closure, isInitializer, parent, instance);
 	}
 }
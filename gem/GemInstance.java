@@ -1,35 +1,37 @@
 package com.interpreter.gem;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class GemInstance {
     public GemClass klass;
-    public final Map<String, Object> fields = new HashMap<>();
+    Shape shape;
+    Object[] values;
 
     GemInstance(GemClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
+        this.values = new Object[klass.expectedFields];
     }
 
     @Override
     public String toString() {
         Object string = get("toString");
         if(string != null) {
-            return (String) ((GemFunction)string).call(new Interpreter(), List.of());
+            return (String) ((GemFunction)string).call(Interpreter.current(), List.of());
         }
         return "inst '"+klass+"'";
     }
 
     public Object get(Token name) {
-        Object value = fields.get(name.lexeme);
+        Object value = get(name.lexeme);
         if (value != null) return value;
 
         if (klass.hasOverloadedMethod(name.lexeme)) {
             return new DeferredCallable(this, name.lexeme, name, klass.name());
         }
 
-        GemFunction method = klass.findMethod(Interpreter.mangleName(name.lexeme, 0));
+        GemFunction method = klass.findMethod(name.lexeme, 0);
         if (method != null) return method.bind(this);
 
         Interpreter.runtimeError(name, "Undefined property '" + name.lexeme + "'.", "NameError");
@@ -37,18 +39,42 @@ public class GemInstance {
     }
 
     public Object get(String name) {
-        return fields.get(name);
+        int offset = shape.offsetOf(name);
+        return offset < 0 ? null : valueAt(offset);
+    }
+
+    // An error's stackTrace holds the captured call sites until the first read turns them into text.
+    Object valueAt(int offset) {
+        Object value = values[offset];
+        if (value instanceof CallStack.Trace trace) {
+            value = trace.toString();
+            values[offset] = value;
+        }
+        return value;
     }
 
 
     public void set(Token name, Object value) {
-        Interpreter.scopes.get(klass.name()).add(name.lexeme);
-        fields.put(name.lexeme, value);
+        set(name.lexeme, value);
     }
 
     public void set(String name, Object value) {
-        Interpreter.scopes.get(klass.name()).add(name);
-        fields.put(name, value);
+        int offset = shape.offsetOf(name);
+        if (offset < 0) {
+            Shape next = shape.withField(name);
+            setAt(next, next.size() - 1, value);
+            return;
+        }
+        values[offset] = value;
+    }
+
+    void setAt(Shape target, int offset, Object value) {
+        shape = target;
+        if (offset >= values.length) {
+            values = Arrays.copyOf(values, offset + 1);
+            if (klass.expectedFields <= offset) klass.expectedFields = offset + 1;
+        }
+        values[offset] = value;
     }
 
     public boolean isError(){
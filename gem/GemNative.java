@@ -70,19 +70,37 @@ public class GemNative{
 
         GemCallable instance = (GemCallable) clazz.getDeclaredConstructor().newInstance();
 
-        // 4. Serialize the object to natives directory
+        // 4. Record it in the natives index, which the interpreter reads instead of instantiating anything
         File outDir = new File("natives");
         System.out.println(outDir.getAbsolutePath());
         outDir.mkdir();
-        try (ObjectOutputStream out = new ObjectOutputStream(
-                new FileOutputStream(new File(outDir, className + ".nav")))) {
-            out.writeObject(instance);
-            System.out.println("Successfully implemented native function: " + className);
-        }
+        addToIndex(new File(outDir, "index"), Interpreter.mangleName(instance.name(), instance.arity()), fqcn);
+        System.out.println("Successfully implemented native function: " + className);
 
         //System.out.println("Successfully implemented native function: " + className);
     }
 
+    // One "name$arity=class" line per native; rebuilding a native replaces its line.
+    private static void addToIndex(File index, String mangledName, String fqcn) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (index.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(index))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith(mangledName + "=")) lines.add(line);
+                }
+            }
+        }
+        lines.add(mangledName + "=" + fqcn);
+        Collections.sort(lines);
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter(index))) {
+            for (String line : lines) {
+                writer.println(line);
+            }
+        }
+    }
+
     private static String getClassName(File javaFile) {
         String name = javaFile.getName();
         return name.substring(0, name.lastIndexOf('.'));
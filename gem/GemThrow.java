@@ -3,17 +3,21 @@ package com.interpreter.gem;
 public class GemThrow extends RuntimeException {
     public final GemInstance errorObject;
     public final int line;
-    public final String msg;
     public final String file;
     public final String name;
 
     public GemThrow(Token token, GemInstance errorObject, String name) {
-        super();
+        // Gem errors carry their own trace, and the prelude throws them for ordinary control flow,
+        // so the Java stack trace is never filled in.
+        super(null, null, false, false);
         this.errorObject = errorObject;
         this.line = token.line;
         this.file = token.sourceFile.getFileName().toString();
-        this.msg = Interpreter.unwrap(errorObject.get("message")) +  "\n" + Interpreter.unwrap(errorObject.get("stackTrace"));
-        //System.err.println(msg);
         this.name = name;
     }
+
+    // Built only for errors that reach the top level uncaught.
+    public String msg() {
+        return Interpreter.unwrap(errorObject.get("message")) +  "\n" + Interpreter.unwrap(errorObject.get("stackTrace"));
+    }
 }
@@ -0,0 +1,135 @@
+package com.interpreter.gem;
+
+// Per-site cache for property reads and writes on instances, attached to Expr.Get and Expr.Set.
+// Entries are keyed by the receiver's Shape; a site that sees more than MAX_ENTRIES shapes goes
+// megamorphic and always takes the uncached path from then on.
+public class InlineCache {
+    static final int MAX_ENTRIES = 4;
+    static final Object MISS = new Object();
+
+    static long hits = 0;
+    static long misses = 0;
+    static long megamorphicLookups = 0;
+
+    private final Shape[] shapes = new Shape[MAX_ENTRIES];
+    // For reads: the field offset, or -1 when the name resolved to a method.
+    // For writes: the offset written to, with targets holding the shape after the write.
+    private final int[] offsets = new int[MAX_ENTRIES];
+    private final GemFunction[] methods = new GemFunction[MAX_ENTRIES];
+    private final Shape[] targets = new Shape[MAX_ENTRIES];
+    private int size = 0;
+    private boolean megamorphic = false;
+
+    Object get(GemInstance instance, Token name) {
+        if (megamorphic) {
+            megamorphicLookups++;
+            return MISS;
+        }
+
+        Shape shape = instance.shape;
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] != shape) continue;
+
+            int offset = offsets[i];
+            if (offset >= 0) {
+                Object value = instance.valueAt(offset);
+                // A nil field falls through to the methods, so let the slow path decide.
+                if (value == null) break;
+                hits++;
+                return value;
+            }
+
+            hits++;
+            if (methods[i] == null) {
+                return new DeferredCallable(instance, name.lexeme, name, instance.klass.name());
+            }
+            return methods[i].bind(instance);
+        }
+
+        misses++;
+        return MISS;
+    }
+
+    // For obj.m(args) sites: the method a cached entry resolves to for this many arguments, or null
+    // when the name is a field or the receiver's shape has not been seen here yet.
+    GemFunction method(GemInstance instance, String name, int arity) {
+        if (megamorphic) return null;
+
+        Shape shape = instance.shape;
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] != shape) continue;
+            if (offsets[i] >= 0) return null;
+
+            hits++;
+            return methods[i] != null ? methods[i] : instance.klass.findMethod(name, arity);
+        }
+        return null;
+    }
+
+    // Called once the slow path has resolved the read and passed the access checks.
+    void cacheGet(GemInstance instance, String name) {
+        Shape shape = instance.shape;
+        if (!reserve(shape)) return;
+
+        int offset = shape.offsetOf(name);
+        if (offset >= 0) {
+            if (instance.values[offset] == null) return;
+            add(shape, offset, null, null);
+        } else if (instance.klass.hasOverloadedMethod(name)) {
+            add(shape, -1, null, null);
+        } else {
+            add(shape, -1, instance.klass.findMethod(name, 0), null);
+        }
+    }
+
+    boolean set(GemInstance instance, Object value) {
+        if (megamorphic) {
+            megamorphicLookups++;
+            return false;
+        }
+
+        Shape shape = instance.shape;
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) {
+                hits++;
+                instance.setAt(targets[i], offsets[i], value);
+                return true;
+            }
+        }
+
+        misses++;
+        return false;
+    }
+
+    // Called after the slow path has written the field, with the shape the instance had before.
+    void cacheSet(Shape before, GemInstance instance, String name) {
+        if (!reserve(before)) return;
+        add(before, instance.shape.offsetOf(name), null, instance.shape);
+    }
+
+    private boolean reserve(Shape shape) {
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) return false;
+        }
+        if (size == MAX_ENTRIES) {
+            megamorphic = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void add(Shape shape, int offset, GemFunction method, Shape target) {
+        shapes[size] = shape;
+        offsets[size] = offset;
+        methods[size] = method;
+        targets[size] = target;
+        size++;
+    }
+
+    static String stats() {
+        long total = hits + misses;
+        double rate = total == 0 ? 0 : 100.0 * hits / total;
+        return String.format("Inline caches: %d hits, %d misses (%.1f%% hit rate), %d megamorphic lookups",
+                hits, misses, rate, megamorphicLookups);
+    }
+}
@@ -7,25 +7,56 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Interpreter.Completion>{
 
 	public final Environment globals = new Environment();
-	private Environment environment = globals;
-	static public final Map<String, List<Object>> scopes = new HashMap<>();
-	private final Map<Expr, Integer> locals = new HashMap<>();
+	Environment environment = globals;
+	// Names each class scope (and "~", the top level) has seen declared, for private access checks.
+	static public final Map<String, Set<Object>> scopes = new HashMap<>();
 	public Path currentSourceFile = null;
 	private final List<String> alreadyImported = new ArrayList<>();
-	private String currentClass = "~";
-	public static Stack<String> stackTrace = new Stack<>();
+	String currentClass = "~";
+	public static CallStack callStack = new CallStack();
 
 	public static Path sourcePath;
 
-	public class Break extends RuntimeException {}
-	public class Continue extends RuntimeException {}
+	// Where parsed modules and the prelude snapshot are kept between runs (GEM_CACHE_DIR, or
+	// ~/.cache/gem); set by --cache-dir=<dir>, or to null by --no-cache.
+	static Path cacheDirectory = System.getenv("GEM_CACHE_DIR") != null
+			? Paths.get(System.getenv("GEM_CACHE_DIR"))
+			: Paths.get(System.getProperty("user.home"), ".cache", "gem");
+	// Only open while the auto-imported prelude is being loaded.
+	private PreludeSnapshot prelude = null;
+	private boolean preludeLoaded = false;
+
+	// How a statement finished when it did not simply fall through to the next one. Statements that
+	// complete normally return null; a RETURN leaves its value in returnValue for the caller to collect.
+	enum Completion { BREAK, CONTINUE, RETURN }
+
+	Object returnValue = null;
+
+	// A 'return f(...)' in tail position leaves TAIL_CALL as its value, with the callee and arguments
+	// here, and GemFunction.invoke makes the call once the caller's frame is gone.
+	static final Object TAIL_CALL = new Object();
+
+	// Gem calls in progress, on either engine, and the limit set by --max-depth.
+	static int maxDepth = 1_000_000;
+	int callDepth = 0;
+	GemFunction tailCallee = null;
+	List<Object> tailArguments = null;
+	Token tailSite = null;
+
+	// Set by --engine=vm: scripts and function bodies are compiled to bytecode and run on the VM.
+	static boolean useVm = false;
+	private VM vm = null;
+
+	// Set by --profile: nodes count their executions, and the hottest are listed at exit.
+	static boolean profile = false;
+	private static final int PROFILE_ROWS = 20;
+	private static final List<Expr> profiledExprs = new ArrayList<>();
+	private static final List<Stmt> profiledStmts = new ArrayList<>();
 
     static {
         try {
@@ -35,18 +66,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         }
     }
 
-    Interpreter(){
-		try {
-			List<GemCallable> natives = loadAllNatives("com/interpreter/natives");
-
-			for(GemCallable nativeFunction : natives){
-				environment.define(mangleName(nativeFunction.name(), nativeFunction.arity()), nativeFunction);
-			}
+	// The interpreter running the script. Code that has to call back into Gem without being handed
+	// an interpreter, like stringify or Java's toString on an instance, runs on this one.
+	private static Interpreter current;
 
-		}catch (Exception e){
-			throw new RuntimeException(e);
-		}
+    Interpreter(){
+		if(current == null) current = this;
+	}
 
+	static Interpreter current(){
+		if(current == null) current = new Interpreter();
+		return current;
 	}
 
 	public static GemClass stringClass;
@@ -61,104 +91,83 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 		booleanClass = booleanCls;
 		listClass = listCls;
 		errorClass = errorCls;
-	}
-
-	public static List<GemCallable> loadAllNatives(String directoryPath) throws Exception {
-
-		List<GemCallable> natives = new ArrayList<>();
-		try (JarFile jar = new JarFile(String.valueOf(sourcePath))) {
-			Enumeration<JarEntry> entries = jar.entries();
-
-			while (entries.hasMoreElements()) {
-				JarEntry entry = entries.nextElement();
-				String name = entry.getName();
-
-				if (name.startsWith(directoryPath) && name.endsWith(".nav")) {
-					try (InputStream in = jar.getInputStream(entry);
-						 ObjectInputStream ois = new ObjectInputStream(in)) {
-
-						Object obj = ois.readObject();
-						if (obj instanceof GemCallable nativeFunc) {
-							natives.add(nativeFunc);
-						}
-					}
-				}
-			}
+		stringCls.kind = GemClass.Kind.STRING;
+		numberCls.kind = GemClass.Kind.NUMBER;
+		booleanCls.kind = GemClass.Kind.BOOLEAN;
+		listCls.kind = GemClass.Kind.LIST;
+		errorCls.kind = GemClass.Kind.ERROR;
+		// Classes defined from here on inherit the error flag when they are created.
+		for(Object value : current().globals.values.values()){
+			if(value instanceof GemClass klass) klass.settleError();
 		}
-		return natives;
 	}
 
-
-	boolean nearlyEqualRel(double a, double b, double relTol, double absTol) {
+	static boolean nearlyEqualRel(double a, double b, double relTol, double absTol) {
 		return Math.abs(a - b) <= Math.max(relTol * Math.max(Math.abs(a), Math.abs(b)), absTol);
 	}
 
 
 	@Override
 	public Object visitBinaryExpr(Expr.Binary expr) {
-		Object left = evaluate(expr.left);
-		Object right = evaluate(expr.right);
+		return binary(expr, evaluate(expr.left), evaluate(expr.right));
+	}
 
+	// Operator semantics, shared with the VM, which evaluates the operands itself. Each site runs
+	// through its BinaryNode, which specializes itself to the operand types it sees.
+	Object binary(Expr.Binary expr, Object left, Object right) {
+		return expr.specialization.execute(this, expr, left, right);
+	}
+
+	// The unspecialized semantics, for sites that have seen mixed or unusual operand types.
+	Object genericBinary(Expr.Binary expr, Object left, Object right) {
 		Object leftRaw = unwrap(left);
 		Object rightRaw = unwrap(right);
 
 
-		switch (expr.operator.type) {
-			case BANG_EQUAL:
-				try{
-					return overload(leftRaw, rightRaw, "!=", expr.operator);
-				}catch (Exception e) {
-					return wrapBoolean(!isEqual(leftRaw, rightRaw));
-				}
-			case EQUAL_EQUAL:
-				try{
-					return overload(leftRaw, rightRaw, "==", expr.operator);
-				}catch (Exception e) {
-					return wrapBoolean(
-							isEqual(leftRaw, rightRaw));
-				}
+		if (expr.operator.type == TokenType.EQUAL_EQUAL || expr.operator.type == TokenType.BANG_EQUAL) {
+			return equality(expr, leftRaw, rightRaw);
 		}
 
 		switch (expr.operator.type) {
 			case GREATER:
 				if(checkNumberOperands(expr.operator, leftRaw, rightRaw))
-					return wrapBoolean((double) leftRaw > (double) rightRaw);
+					return (double) leftRaw > (double) rightRaw;
 				return overload(leftRaw, rightRaw, ">", expr.operator);
 			case GREATER_EQUAL:
 				if(checkNumberOperands(expr.operator, leftRaw, rightRaw))
-					return wrapBoolean((double) leftRaw >= (double) rightRaw);
+					return (double) leftRaw >= (double) rightRaw;
 				return overload(leftRaw, rightRaw, ">=", expr.operator);
 			case LESS:
 				if(checkNumberOperands(expr.operator, leftRaw, rightRaw))
-					return wrapBoolean((double) leftRaw < (double) rightRaw);
+					return (double) leftRaw < (double) rightRaw;
 				return overload(leftRaw, rightRaw, "<", expr.operator);
 			case LESS_EQUAL:
 				if(checkNumberOperands(expr.operator, leftRaw, rightRaw))
-					return wrapBoolean((double) leftRaw <= (double) rightRaw);
+					return (double) leftRaw <= (double) rightRaw;
 				return overload(leftRaw, rightRaw, "<=", expr.operator);
 			case MINUS:
 				if(checkNumberOperands(expr.operator, leftRaw, rightRaw))
-					return wrapNumber((double) leftRaw - (double) rightRaw);
+					return (double) leftRaw - (double) rightRaw;
 				return overload(leftRaw, rightRaw, "-", expr.operator);
 			case PERCEN:
 				if(checkNumberOperands(expr.operator, leftRaw, rightRaw))
-					return wrapNumber((double) leftRaw % (double) rightRaw);
+					return (double) leftRaw % (double) rightRaw;
 				return overload(leftRaw, rightRaw, "%", expr.operator);
 			case BACKSLASH:
 				if(checkNumberOperands(expr.operator, leftRaw, rightRaw))
-					return wrapNumber((double) ((int) (double) leftRaw / (int) (double) rightRaw));
+					return (double) ((int) (double) leftRaw / (int) (double) rightRaw);
 				return overload(leftRaw, rightRaw, "\\", expr.operator);
 			case SLASH:
 				if(checkNumberOperands(expr.operator, leftRaw, rightRaw))
-					return wrapNumber((double) leftRaw / (double) rightRaw);
+					return (double) leftRaw / (double) rightRaw;
 				return overload(leftRaw, rightRaw, "/", expr.operator);
 			case STAR:
 				if(checkNumberOperands(expr.operator, leftRaw, rightRaw))
-					return wrapNumber((double) leftRaw * (double) rightRaw);
+					return (double) leftRaw * (double) rightRaw;
 				return overload(leftRaw, rightRaw, "*", expr.operator);
 			case PLUS:
 				if (leftRaw instanceof Double && rightRaw instanceof Double) {
-					return wrapNumber((double) leftRaw + (double) rightRaw);
+					return (double) leftRaw + (double) rightRaw;
 				}
 				if (leftRaw instanceof String || rightRaw instanceof String) {
 					String leftText = stringify(leftRaw).toString();
@@ -170,7 +179,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 					if (rightText.endsWith(".0")) {
 						rightText = rightText.substring(0, rightText.length() - 2);
 					}
-					return wrapString(leftText + rightText);
+					return leftText + rightText;
 				}
 				return overload(leftRaw, rightRaw, "+", expr.operator);
 		}
@@ -179,9 +188,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 	public Object overload(Object left, Object right, String operator, Token token) {
 		if(left instanceof GemInstance leftInst && right instanceof GemInstance rightInst) {
-			GemFunction function = leftInst.klass.findMethod(mangleName(operator, 1));
+			GemFunction function = leftInst.klass.findMethod(operator, 1);
 			if (function != null) {
-				return stringify(function.bind(leftInst).call(this, List.of(rightInst)));
+				return stringify(function.invoke(this, leftInst, List.of(rightInst)));
 			}
 		}
 
@@ -189,33 +198,64 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 		throw new RuntimeException();
 	}
 
-	public static void runtimeError(Token token, String msg, String type){
-		GemInstance errorInstance = new GemInstance(errorClass);
-        StringBuilder msgBuilder = new StringBuilder();
-		msgBuilder.append("\t").append("at (").append(token.sourceFile.getFileName()).append(":").append(token.line).append(")");
-        for(int i = stackTrace.size() - 1; i >= 0; i--){
-			msgBuilder.append("\n\t").append(stackTrace.get(i));
+	// == and != call the left operand's operator method when both sides are instances and it has
+	// one. Otherwise, or when that method fails, they compare the raw values.
+	private Object equality(Expr.Binary expr, Object left, Object right) {
+		boolean negate = expr.operator.type == TokenType.BANG_EQUAL;
+		if(left instanceof GemInstance leftInst && right instanceof GemInstance rightInst) {
+			GemFunction function = leftInst.klass.findMethod(expr.operator.lexeme, 1);
+			if (function != null) {
+				return callEquality(function, leftInst, rightInst, negate);
+			}
 		}
-        String stack = msgBuilder.toString();
-        errorInstance.set("message", msg);
-		errorInstance.set("stackTrace", stack);
+		return isEqual(left, right) != negate;
+	}
 
-		throw new GemThrow(token, errorInstance, type);
+	Object callEquality(GemFunction function, GemInstance left, GemInstance right, boolean negate) {
+		int depth = callStack.size();
+		try{
+			return stringify(function.invoke(this, left, List.of(right)));
+		}catch (RuntimeException e) {
+			callStack.unwind(depth);
+			return isEqual(left, right) != negate;
+		}
 	}
 
-	private Object wrapNumber(double value) {
-		return numberClass.call(this, List.of(value), true);
+	public static void runtimeError(Token token, String msg, String type){
+		throwError(token, errorClass, msg, type);
 	}
 
-	private Object wrapString(String value) {
-		return stringClass.call(this, List.of(value, (double)value.length()), true);
+	static void throwError(Token token, GemClass klass, String msg, String type){
+		GemInstance errorInstance = new GemInstance(klass);
+        errorInstance.set("message", msg);
+		errorInstance.set("stackTrace", callStack.capture(token));
+
+		throw new GemThrow(token, errorInstance, type);
 	}
 
-	private Object wrapList(GemList list) {
+	Object wrapList(GemList list) {
 		return listClass.call(this, List.of(list, (double)list.size()), true);
 	}
 
-	private Object wrapBoolean(boolean value) { return booleanClass.call(this, List.of(value), true); }
+	// Numbers, strings and booleans travel through the interpreter as raw Java values.
+	// A wrapper instance is only materialized when a method or property is accessed on one.
+	private Object box(Object value) {
+		GemInstance instance;
+		if (value instanceof String string) {
+			instance = new GemInstance(stringClass);
+			instance.set("#len", (double) string.length());
+		} else if (value instanceof Double) {
+			instance = new GemInstance(numberClass);
+		} else {
+			instance = new GemInstance(booleanClass);
+		}
+		instance.set("#value", value);
+		return instance;
+	}
+
+	private static boolean isPrimitive(Object value) {
+		return value instanceof Double || value instanceof String || value instanceof Boolean;
+	}
 
 	@Override
 	public Object visitGroupingExpr(Expr.Grouping expr) {
@@ -224,37 +264,22 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 	@Override
 	public Object visitLiteralExpr(Expr.Literal expr) {
-		Object value = expr.value;
-
-		if (value instanceof String) {
-			return stringClass.call(this, List.of(value, ((String) value).length()), true);
-		} else if (value instanceof Double) {
-			return numberClass.call(this, List.of(value), true);
-		} else if (value instanceof Boolean) {
-			return booleanClass.call(this, List.of(value), true);
-		}
-		return value;
+		return expr.value;
 	}
 
 	public static Object unwrap(Object obj) {
-		if (obj instanceof GemInstance inst && (inst.klass.name().equals("String") || inst.klass.name().equals("Number") || inst.klass.name().equals("Boolean") || inst.klass.name().equals("List"))) {
+		if (obj instanceof GemInstance inst && inst.klass.kind.wrapper) {
             return inst.get("#value"); // assumes wrapper stores it in `.value`
 		}
 		return obj;
 	}
 
 	public Object wrap(Object obj) {
-		if(obj instanceof Double){
-			return wrapNumber((Double) obj);
-		}
 		if(obj instanceof Integer){
-			return wrapNumber(Double.valueOf((Integer) obj));
-		}
-		if(obj instanceof String){
-			return wrapString((String) obj);
+			return Double.valueOf((Integer) obj);
 		}
-		if(obj instanceof Boolean){
-			return wrapBoolean((Boolean) obj);
+		if(obj instanceof GemInstance instance && instance.klass != listClass){
+			return unwrap(obj);
 		}
 		if(obj instanceof List){
 			return wrapList((GemList) obj);
@@ -267,13 +292,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 	@Override
 	public Object visitUnaryExpr(Expr.Unary expr) {
-		Object right = evaluate(expr.right);
+		return unary(expr, evaluate(expr.right));
+	}
 
+	Object unary(Expr.Unary expr, Object right) {
 		switch(expr.operator.type){
-			case BANG: return wrap(!isTruthy(right));
+			case BANG: return !isTruthy(right);
 			case MINUS:
 				   checkNumberOperand(expr.operator, right);
-				   return wrap(-(double)unwrap(right));
+				   return -(double)unwrap(right);
 		}
 
 		return null;
@@ -281,33 +308,73 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 	@Override
 	public Object visitVariableExpr(Expr.Variable expr) {
-		return lookUpVariable(expr.name, expr);
+		return lookUpVariable(expr.name, expr.depth, expr.slot);
 	}
 
-	private Object lookUpVariable(Token name, Expr expr){
-		Integer distance = locals.get(expr);
-		if(distance != null){
-			return environment.getAt(distance, name.lexeme);
+	private Object lookUpVariable(Token name, int depth, int slot){
+		if(depth >= 0){
+			return environment.getAt(depth, slot);
 		}
 		else{
 			return environment.get(name.lexeme);
 		}
 	}
 
-	private Object evaluate(Expr expr){
-		return (expr.accept(this));
+	// A call looks for the overload with its arity first, then falls back to the plain name,
+	// which holds the function's dispatcher or an ordinary variable.
+	private Object lookUpCallee(Expr.Call expr, Expr.Variable varExpr){
+		if(expr.depth >= 0){
+			return environment.getAt(expr.depth, expr.slot);
+		}
+
+		Object callee = globalCallee(expr);
+		if(callee != NOT_FOUND){
+			return callee;
+		}
+
+		if(varExpr.depth >= 0){
+			return environment.getAt(varExpr.depth, varExpr.slot);
+		}
+		return globalVariable(varExpr);
 	}
 
-	private boolean isTruthy(Object object){
-        return switch (object) {
-			case null -> false;
-            case GemInstance instance when instance.klass.name().equals("Boolean") -> (Boolean) instance.get("#value");
-            case GemInstance instance when instance.klass.name().equals("Number") ->
-                    (Double) instance.get("#value") != 0;
-            default -> true;
-        };
+	// What globalCallee returns when neither a global overload nor a native has the mangled name.
+	static final Object NOT_FOUND = new Object();
 
-    }
+	Object globalCallee(Expr.Call expr){
+		Map<String, Object> globalValues = globals.values;
+		Object callee = globalValues.get(expr.mangledName);
+		if(callee != null || globalValues.containsKey(expr.mangledName)){
+			return callee;
+		}
+		callee = nativeFunction(expr.mangledName);
+		return callee != null ? callee : NOT_FOUND;
+	}
+
+	Object globalVariable(Expr.Variable varExpr){
+		Map<String, Object> globalValues = globals.values;
+		Object callee = globalValues.get(varExpr.name.lexeme);
+		if(callee == null && !globalValues.containsKey(varExpr.name.lexeme)){
+			runtimeError(new Token(TokenType.IDENTIFIER, varExpr.name.lexeme, null, varExpr.name.line, currentSourceFile), "Undefined variable '" + varExpr.name.lexeme + "'.", "NameError");
+		}
+		return callee;
+	}
+
+	Object evaluate(Expr expr){
+		if(profile && expr.executions++ == 0) profiledExprs.add(expr);
+		return expr.execute(this);
+	}
+
+	boolean isTruthy(Object object){
+		if(object == null) return false;
+		if(object instanceof Boolean bool) return bool;
+		if(object instanceof Double number) return number != 0;
+		if(object instanceof GemInstance instance){
+			if(instance.klass.kind == GemClass.Kind.BOOLEAN) return (Boolean) instance.get("#value");
+			if(instance.klass.kind == GemClass.Kind.NUMBER) return (Double) instance.get("#value") != 0;
+		}
+		return true;
+	}
 
 	private boolean isEqual(Object a, Object b) {
 		if (a == null && b == null) return true;
@@ -334,22 +401,62 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 		//runtimeError(operator, "Operands expected to be numbers, received " + typeOf(left) + " and " +  typeOf(right), "TypeError");
 	}
+	// Runs the auto-imports. The first time, the modules they pull in come from the prelude
+	// snapshot where it has them, and the snapshot is brought up to date afterwards.
+	void interpretPrelude(List<Stmt> imports){
+		if(preludeLoaded){
+			interpret(imports);
+			return;
+		}
+		preludeLoaded = true;
+		prelude = PreludeSnapshot.open(cacheDirectory);
+		try{
+			interpret(imports);
+		}finally{
+			prelude.finish();
+			prelude = null;
+		}
+	}
+
 	void interpret(List<Stmt> statements){
 		try{
+			if(useVm){
+				vm().execute(BytecodeCompiler.compile(statements), environment, currentClass);
+				return;
+			}
 			for(Stmt statement : statements){
 				execute(statement);
 			}
 		}catch (GemThrow error) {
-			System.err.println("[Line " + error.line + "] " + error.name + ": " + error.msg);
+			System.err.println("[Line " + error.line + "] " + error.name + ": " + error.msg());
 			System.exit(70);
 		}
 	}
 
-	private void execute(Stmt stmt) {
-		stmt.accept(this);
+	Completion execute(Stmt stmt) {
+		if(profile && stmt.executions++ == 0) profiledStmts.add(stmt);
+		return stmt.execute(this);
 	}
 
-	private static Object stringify(Object object){
+	static String profileReport(){
+		record Row(long executions, String kind, int line) {}
+		List<Row> rows = new ArrayList<>();
+		for(Expr expr : profiledExprs){
+			rows.add(new Row(expr.executions, "Expr." + expr.getClass().getSimpleName(), expr.line()));
+		}
+		for(Stmt stmt : profiledStmts){
+			rows.add(new Row(stmt.executions, "Stmt." + stmt.getClass().getSimpleName(), stmt.line()));
+		}
+		rows.sort(Comparator.comparingLong(Row::executions).reversed());
+
+		StringBuilder report = new StringBuilder("Hottest nodes (tree-walker only):");
+		for(Row row : rows.subList(0, Math.min(PROFILE_ROWS, rows.size()))){
+			report.append(String.format("%n%12d  %-18s line %d", row.executions(), row.kind(), row.line()));
+		}
+		return report.toString();
+	}
+
+	static Object stringify(Object object){
 		if(object == null) return "nil";
 
 		if(object instanceof Double){
@@ -361,10 +468,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 		}
 
 		if(object instanceof GemInstance instance){
-			GemFunction function = instance.klass.findMethod(Interpreter.mangleName("toString",0));
+			GemFunction function = instance.klass.findMethod("toString", 0);
 			if(function != null) {
-				function = function.bind(instance);
-				Object result = Interpreter.unwrapAll(function.call(new Interpreter(), new ArrayList<>()));
+				Object result = Interpreter.unwrapAll(function.invoke(current(), instance, new ArrayList<>()));
 				return stringify(unwrap(result));
 			}
 		}
@@ -373,34 +479,48 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	}
 
 	@Override
-	public Void visitExpressionStmt(Stmt.Expression stmt){
+	public Completion visitExpressionStmt(Stmt.Expression stmt){
 		evaluate(stmt.expression);
 		return null;
 	}
 
 	@Override
-	public Void visitVarStmt(Stmt.Var stmt) {
+	public Completion visitVarStmt(Stmt.Var stmt) {
 		Object value = null;
 		if(stmt.initializer != null){
 			value = evaluate(stmt.initializer);
 		}
+		defineVariable(stmt, value);
+		return null;
+	}
+
+	void defineVariable(Stmt.Var stmt, Object value) {
+		declare(stmt);
+
+		if(stmt.slot >= 0){
+			environment.define(stmt.slot, value);
+		}
+		else{
+			environment.define(stmt.name.lexeme, value);
+		}
+	}
 
+	// Records the name in the current class scope; the VM calls this for variables it keeps in registers.
+	void declare(Stmt.Var stmt) {
 		//scopes.define(stmt.name.lexeme, currentClass);
-		if(scopes.containsKey(currentClass))
-			scopes.get(currentClass).add(stmt.name.lexeme);
+		Set<Object> names = scopes.get(currentClass);
+		if(names != null)
+			names.add(stmt.name.lexeme);
 		else
-			scopes.put(currentClass, new ArrayList<>());
-		environment.define(stmt.name.lexeme, value);
-		return null;
+			scopes.put(currentClass, new HashSet<>());
 	}
 
 	@Override
 	public Object visitAssignExpr(Expr.Assign expr){
 		Object value = evaluate(expr.value);
 
-		Integer distance = locals.get(expr);
-		if(distance != null){
-			environment.assignAt(distance, expr.name, value);
+		if(expr.depth >= 0){
+			environment.assignAt(expr.depth, expr.slot, value);
 		}
 		else{
 			globals.assign(expr.name, value);
@@ -410,62 +530,65 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	}
 
 	@Override
-	public Void visitBlockStmt(Stmt.Block stmt){
-		executeBlock(stmt.statements, new Environment(environment), currentClass);
-		return null;
+	public Completion visitBlockStmt(Stmt.Block stmt){
+		return executeBlock(stmt.statements, new Environment(environment, stmt.frame), currentClass);
 	}
 
 	@Override
-	public Void visitThrowStmt(Stmt.Throw stmt) {
-		Object value = evaluate(stmt.value);
+	public Completion visitThrowStmt(Stmt.Throw stmt) {
+		throwValue(stmt.keyword, evaluate(stmt.value));
+		return null;
+	}
+
+	void throwValue(Token keyword, Object value) {
 		if(value instanceof GemInstance instance){
 			if(instance.isError()){
-				StringBuilder str = new StringBuilder();
-				for(int i = stackTrace.size() - 1; i >= 0; i--){
-					str.append("\n\t").append(stackTrace.get(i));
-				}
-				instance.set("stackTrace", "\tat (" + stmt.keyword.sourceFile.getFileName() + ":" + stmt.keyword.line + ")" + str.toString());
-				throw new GemThrow(stmt.keyword, instance, instance.klass.name());
+				instance.set("stackTrace", callStack.capture(keyword));
+				throw new GemThrow(keyword, instance, instance.klass.name());
 			}
 		}
-		runtimeError(stmt.keyword, "Expected an error to throw, received " + typeOf(unwrap(value)), "TypeError");
-		return null;
+		runtimeError(keyword, "Expected an error to throw, received " + typeOf(unwrap(value)), "TypeError");
 	}
 
 	@Override
-	public Void visitTryStmt(Stmt.Try stmt) {
-		Stack<String> backup = (Stack<String>)stackTrace.clone();
+	public Completion visitTryStmt(Stmt.Try stmt) {
+		// Entering a try only remembers how deep the call stack is; calls an error unwinds past are
+		// dropped when it is caught.
+		int depth = callStack.size();
+		Completion completion = null;
 		try {
-			execute(stmt.tryBlock);
+			completion = execute(stmt.tryBlock);
 		} catch (GemThrow error) {
 			if (stmt.catchBlock instanceof Stmt.Block block) {
-				stackTrace = backup;
-				Environment catchEnv = new Environment(environment);
-				catchEnv.define(stmt.errorVar.name.lexeme, error.errorObject);
-				executeBlock(block.statements, catchEnv, currentClass);
+				callStack.unwind(depth);
+				Environment catchEnv = new Environment(environment, stmt.catchFrame);
+				catchEnv.define(0, error.errorObject);
+				completion = executeBlock(block.statements, catchEnv, currentClass);
 			} else {
 				throw error; // rethrow if no catch block
 			}
 		} finally {
-			if(!(stmt.catchBlock instanceof Stmt.Block block)){
-				stackTrace = backup;
+			if(!(stmt.catchBlock instanceof Stmt.Block)){
+				callStack.unwind(depth);
 			}
 			if (stmt.finallyBlock != null) {
-				execute(stmt.finallyBlock);
+				// A jump out of the finally block overrides whatever the try or catch block was doing.
+				Completion finallyCompletion = execute(stmt.finallyBlock);
+				if (finallyCompletion != null) return finallyCompletion;
 			}
 		}
-		return null;
+		return completion;
 	}
 
 
 
 	@Override
-	public Void visitIfStmt(Stmt.If stmt){
+	public Completion visitIfStmt(Stmt.If stmt){
 		if(isTruthy(evaluate(stmt.condition))){
-			execute(stmt.thenBranch);
+			return execute(stmt.thenBranch);
 		}
 		else if(stmt.elseBranch != null){
-			execute(stmt.elseBranch);
+			return execute(stmt.elseBranch);
 		}
 		return null;
 	}
@@ -485,24 +608,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	}
 
 	@Override
-	public Void visitWhileStmt(Stmt.While stmt) {
-		try {
-			while (isTruthy(evaluate(stmt.condition))) {
-				try {
-					execute(stmt.body);
-				} catch (Continue e) {
-					if(stmt.increment != null){
-						//System.out.println("dis is not null");
-						Environment prev = environment;
-						environment = new Environment(environment);
-						execute(stmt.increment);
-						environment = prev;
-						//System.out.println("done increment");
-						//environment.get("i");
-					}
-				}
+	public Completion visitWhileStmt(Stmt.While stmt) {
+		while (isTruthy(evaluate(stmt.condition))) {
+			Completion completion = execute(stmt.body);
+			if (completion == Completion.BREAK) break;
+			if (completion == Completion.RETURN) return completion;
+
+			// Both a normal pass and a 'continue' go on to the for-loop increment.
+			if (stmt.increment != null) {
+				execute(stmt.increment);
 			}
-		} catch (Break e) {}
+		}
 		return null;
 	}
 
@@ -529,50 +645,119 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 		for (Expr argument : expr.arguments) {
 			arguments.add(evaluate(argument));
 		}
+		// Named calls skip call(), one Java frame fewer per level of Gem recursion.
+		if (expr.callee instanceof Expr.Variable varExpr) {
+			return callFunction(expr, varExpr, callee(expr, varExpr), arguments);
+		}
+		return call(expr, arguments);
+	}
+
+	// Sets up a tail call to a Gem function, or makes any other call on the spot.
+	private Object tailCall(Expr.Call expr) {
+		List<Object> arguments = new ArrayList<>();
+		for (Expr argument : expr.arguments) {
+			arguments.add(evaluate(argument));
+		}
+
+		Expr.Variable varExpr = (Expr.Variable) expr.callee;
+		Object callee = callee(expr, varExpr);
+		if (callee instanceof GemFunction function && !takesRawArguments(callee)) {
+			tailSite = varExpr.name;
+			tailCallee = function;
+			tailArguments = arguments;
+			return TAIL_CALL;
+		}
+		return callFunction(expr, varExpr, callee, arguments);
+	}
+
+	// Up to maxDepth calls may be in progress at once; the one after that raises the error.
+	void enterCall(Token name){
+		if(++callDepth > maxDepth){
+			callDepth--;
+			stackOverflow(name, "Maximum call depth of " + maxDepth + " exceeded.");
+		}
+	}
+
+	void stackOverflow(Token name, String message){
+		Object klass = globals.get("StackOverflowError");
+		throwError(name, klass instanceof GemClass errorType ? errorType : errorClass, message, "StackOverflowError");
+	}
 
+	// Everything a call does once its arguments are evaluated, shared with the VM.
+	Object call(Expr.Call expr, List<Object> arguments) {
 		if (expr.callee instanceof Expr.Variable varExpr) {
-			String mangled = mangleName(varExpr.name.lexeme, arguments.size());
-			Object callee;
+			return callFunction(expr, varExpr, callee(expr, varExpr), arguments);
+		}
 
-			try {
-				callee = environment.get(new Token(TokenType.IDENTIFIER, mangled, null, varExpr.name.line, currentSourceFile));
-			}catch(GemThrow error){
-				callee = environment.get(new Token(TokenType.IDENTIFIER, varExpr.name.lexeme, null, varExpr.name.line, currentSourceFile));
-			}
+		if (expr.callee instanceof Expr.Get getExpr) {
+			return callMethod(expr, getExpr, evaluate(getExpr.object), arguments);
+		}
 
-			callee = wrap(callee);
+		return callValue(expr, wrap(evaluate(expr.callee)), arguments);
+	}
 
-			if (!(callee instanceof GemCallable function)) {
-				Token token = varExpr.name;
-				String msg = "Expected functions or classes to call, received " + typeOf(unwrap(callee)) + ".";
-				runtimeError(token, msg, "TypeError");
-				throw new RuntimeException();
-			}
+	Object callee(Expr.Call expr, Expr.Variable varExpr) {
+		return wrap(lookUpCallee(expr, varExpr));
+	}
 
-			if(callee.toString().contains("native")){
-				for(int i = 0; i < arguments.size(); i++){
-					arguments.set(i, unwrapAll(arguments.get(i)));
-				}
+	// Natives get their arguments unwrapped; anything whose description says "native" is treated as one.
+	static boolean takesRawArguments(Object callee) {
+		if (callee instanceof GemFunction function) return function.rawArguments;
+		return callee.toString().contains("native");
+	}
+
+	// A call through a name, once the callee has been looked up.
+	Object callFunction(Expr.Call expr, Expr.Variable varExpr, Object callee, List<Object> arguments) {
+		if (!(callee instanceof GemCallable function)) {
+			Token token = varExpr.name;
+			String msg = "Expected functions or classes to call, received " + typeOf(unwrap(callee)) + ".";
+			runtimeError(token, msg, "TypeError");
+			throw new RuntimeException();
+		}
+
+		if(takesRawArguments(callee)){
+			for(int i = 0; i < arguments.size(); i++){
+				arguments.set(i, unwrapAll(arguments.get(i)));
 			}
-			stackTrace.add("at "+ varExpr.name.lexeme + " (" + varExpr.name.sourceFile.getFileName() + ":" + varExpr.name.line + ")");
+		}
+		callStack.push(varExpr.name);
 
-			Object result;
+		Object result;
+		if (function instanceof GemFunction gemFunction) {
+			result = gemFunction.invoke(this, gemFunction.receiver(), arguments);
+		} else {
 			result = function.call(this, arguments);
+		}
 
-			stackTrace.pop();
+		callStack.pop();
 
-			if(callee instanceof GemClass && result instanceof String strResult){
-				if(strResult.endsWith("arguments."))
-					runtimeError(expr.paren, strResult, "InstantiationError");
-				else if(strResult.endsWith("scope."))
-					runtimeError(expr.paren, strResult, "IllegalAccessError");
-			}
+		if(callee instanceof GemClass && result instanceof String strResult){
+			if(strResult.endsWith("arguments."))
+				runtimeError(expr.paren, strResult, "InstantiationError");
+			else if(strResult.endsWith("scope."))
+				runtimeError(expr.paren, strResult, "IllegalAccessError");
+		}
 
-			return wrap(result);
+		return wrap(result);
+	}
+
+	Object callMethod(Expr.Call expr, Expr.Get getExpr, Object object, List<Object> arguments) {
+		if(isPrimitive(object)) {
+			object = box(object);
 		}
 
-		Object callee = wrap(evaluate(expr.callee));
+		// obj.m(args) hands the receiver straight to the method when the site has already cached it,
+		// so no bound method is created just to be called once.
+		if(object instanceof GemInstance instance && getExpr.cache != null) {
+			GemFunction method = getExpr.cache.method(instance, getExpr.name.lexeme, arguments.size());
+			if(method != null) {
+				return wrap(method.invoke(this, instance, arguments));
+			}
+		}
+		return callValue(expr, wrap(getProperty(getExpr, object)), arguments);
+	}
 
+	Object callValue(Expr.Call expr, Object callee, List<Object> arguments) {
 		if (!(callee instanceof GemCallable function)) {
 			runtimeError(expr.paren, "Expected functions or classes to call, received " + typeOf(unwrap(callee)) + ".", "TypeError");
 			throw new RuntimeException();
@@ -586,15 +771,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 	@Override
 	public Object visitGetExpr(Expr.Get expr) {
-		Object object = evaluate(expr.object);
+		return getProperty(expr, evaluate(expr.object));
+	}
+
+	Object getProperty(Expr.Get expr, Object object) {
+		if(isPrimitive(object)) {
+			object = box(object);
+		}
 		if(object != null) {
 			if (object instanceof GemInstance instance){
+				if(expr.cache == null) expr.cache = new InlineCache();
+				Object cached = expr.cache.get(instance, expr.name);
+				if(cached != InlineCache.MISS) return cached;
+
+				// Only reads that pass the access checks are cached, and both checks give the same answer on every later visit.
 				Object value = instance.get(expr.name);
 				if (value instanceof DeferredCallable function) {
 					if(expr.name.lexeme.charAt(0) != '#'){
+						expr.cache.cacheGet(instance, expr.name.lexeme);
 						return function;
 					}
 					if(expr.name.lexeme.charAt(0) == '#' && scopes.get(currentClass).contains(function.parent)) {
+						expr.cache.cacheGet(instance, expr.name.lexeme);
 						return function;
 					}
 					runtimeError(expr.name, "Cannot access private method from current scope.", "IllegalAccessError");
@@ -603,9 +801,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 
 					if(expr.name.lexeme.charAt(0) != '#'){
+						expr.cache.cacheGet(instance, expr.name.lexeme);
 						return value;
 					}
 					if(expr.name.lexeme.charAt(0) == '#' && scopes.get(currentClass).contains(expr.name.lexeme)){
+						expr.cache.cacheGet(instance, expr.name.lexeme);
 						return value;
 					}
 					runtimeError(expr.name, "Cannot access private field from current scope.", "IllegalAccessError");
@@ -646,19 +846,30 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	@Override
 	public Object visitSetExpr(Expr.Set expr) {
 		Object object = evaluate(expr.object);
+		checkSetTarget(expr, object);
+		return setProperty(expr, object, evaluate(expr.value));
+	}
 
+	// The target is checked before the value is evaluated.
+	void checkSetTarget(Expr.Set expr, Object object) {
+		if(!(object instanceof GemClass) && !(object instanceof GemInstance)){
+			runtimeError(expr.name, "Expected instance, received " + object + ", '" + expr.name + "'.", "TypeError");
+		}
+	}
+
+	Object setProperty(Expr.Set expr, Object object, Object value) {
 		if(object instanceof GemClass clazz) {
-			Object value = evaluate(expr.value);
 			clazz.setStaticField(expr.name.lexeme, value);
 			return value;
 		}
 
-		if(!(object instanceof GemInstance)){
-			runtimeError(expr.name, "Expected instance, received " + object + ", '" + expr.name + "'.", "TypeError");
+		GemInstance instance = (GemInstance)object;
+		if(expr.cache == null) expr.cache = new InlineCache();
+		if(!expr.cache.set(instance, value)){
+			Shape before = instance.shape;
+			instance.set(expr.name, value);
+			expr.cache.cacheSet(before, instance, expr.name.lexeme);
 		}
-
-		Object value = evaluate(expr.value);
-		((GemInstance)object).set(expr.name, value);
 		return value;
 	}
 
@@ -673,10 +884,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 	@Override
 	public Object visitGetIndexExpr(Expr.GetIndex expr) {
-		Object obj = unwrap(unwrap(evaluate(expr.object)));
+		return getIndex(expr, evaluate(expr.object), evaluate(expr.indexStart), evaluate(expr.indexEnd));
+	}
+
+	Object getIndex(Expr.GetIndex expr, Object object, Object from, Object to) {
+		Object obj = unwrap(unwrap(object));
 
-		Object indexStart = unwrap(evaluate(expr.indexStart));
-		Object indexEnd = unwrap(evaluate(expr.indexEnd));
+		Object indexStart = unwrap(from);
+		Object indexEnd = unwrap(to);
 		if (obj instanceof GemList && indexStart instanceof Double && indexEnd instanceof Double) {
 			Object returnVal =  ((GemList) obj).get(expr.bracket, ((Double) indexStart).intValue(), ((Double) indexEnd).intValue());
 			return wrap(returnVal);
@@ -688,7 +903,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 			if(start < 0 || start > ((String) obj).length() - 1 || start > end || end > ((String) obj).length() - 1){
 				runtimeError(expr.bracket, "Index " + start + " to " + end + " out of bounds for length " + (((String) obj).length() - 1), "IndexOutOfBoundsError");
 			}
-			return wrapString(((String)obj).substring(start, end + 1));
+			return ((String)obj).substring(start, end + 1);
 		}
 
 		if(indexStart instanceof Double && indexEnd instanceof Double)
@@ -700,9 +915,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 	@Override
 	public Object visitSetIndexExpr(Expr.SetIndex expr) {
-		Object obj = unwrap(evaluate(expr.object));
-		Object index = unwrap(evaluate(expr.index));
-		Object value = unwrap(evaluate(expr.value));
+		return setIndex(expr, evaluate(expr.object), evaluate(expr.index), evaluate(expr.value));
+	}
+
+	Object setIndex(Expr.SetIndex expr, Object object, Object position, Object element) {
+		Object obj = unwrap(object);
+		Object index = unwrap(position);
+		Object value = unwrap(element);
 		if (obj instanceof GemList && index instanceof Double) {
 			((GemList) obj).set(((Double) index).intValue(), value);
 			return wrap(value);
@@ -715,19 +934,49 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	public String typeOf(Object object) {
 		List<Object> temp = new ArrayList<>();
 		temp.add(unwrap(object));
-		return (String) ((GemCallable)environment.get("type$1")).call(this, temp);
+		Object type = environment.get("type$1");
+		if(type == null) type = nativeFunction("type$1");
+		return (String) ((GemCallable)type).call(this, temp);
+	}
+
+	// Natives are only instantiated once something calls them. From then on they are ordinary
+	// globals, which a script's own definition of the same name replaces.
+	private GemCallable nativeFunction(String mangledName){
+		GemCallable nativeFunction = NativeRegistry.lookup(mangledName);
+		if(nativeFunction != null){
+			environment.globals.define(mangledName, nativeFunction);
+		}
+		return nativeFunction;
+	}
+
+
+	// A function's body compiled for the VM, on its first call.
+	static Chunk chunk(Stmt.Function declaration){
+		if(declaration.chunk == null){
+			declaration.chunk = BytecodeCompiler.compileBody(declaration);
+		}
+		return declaration.chunk;
 	}
 
+	VM vm(){
+		if(vm == null) vm = new VM(this);
+		return vm;
+	}
 
-	void executeBlock(List<Stmt> statements, Environment environment, String clazz){
+	Completion executeBlock(List<Stmt> statements, Environment environment, String clazz){
 		Environment previous = this.environment;
 		String prevClass = currentClass;
 		try{
 			this.currentClass = clazz;
 			this.environment = environment;
+			// execute() inlined: every function body runs through here, so it is one Java frame
+			// fewer per level of Gem recursion.
 			for(Stmt statement: statements) {
-				execute(statement);
+				if(profile && statement.executions++ == 0) profiledStmts.add(statement);
+				Completion completion = statement.execute(this);
+				if(completion != null) return completion;
 			}
+			return null;
 		}
 		finally{
 			this.currentClass = prevClass;
@@ -735,11 +984,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 		}
 	}
 	@Override
-	public Void visitFunctionStmt(Stmt.Function stmt) {
+	public Completion visitFunctionStmt(Stmt.Function stmt) {
 		// Mangle the name by arity
-		String mangledName = mangleName(stmt.name.lexeme, stmt.params.size());
 		GemFunction function = new GemFunction(stmt, environment, false, stmt.parent);
-		environment.define(mangledName, function);
+
+		if (stmt.slot >= 0) {
+			environment.define(stmt.slot, function);
+			if (environment.getAt(0, stmt.dispatcherSlot) == null) {
+				environment.define(stmt.dispatcherSlot,
+						new FunctionDispatcher(stmt.name.lexeme, environment, stmt.name));
+			}
+			return null;
+		}
 
 		String mangled = mangleName(stmt.name.lexeme, stmt.params.size());
 		environment.define(mangled, function);
@@ -752,13 +1008,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	}
 
 	@Override
-	public Void visitBreakStmt(Stmt.Break stmt) {
-		throw new Break();
+	public Completion visitBreakStmt(Stmt.Break stmt) {
+		return Completion.BREAK;
 	}
 
 	@Override
-	public Void visitContinueStmt(Stmt.Continue stmt) {
-		throw new Continue();
+	public Completion visitContinueStmt(Stmt.Continue stmt) {
+		return Completion.CONTINUE;
 	}
 
 	public static String mangleName(String name, int arity) {
@@ -768,18 +1024,22 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 
 	@Override
-	public Void visitReturnStmt(Stmt.Return stmt){
+	public Completion visitReturnStmt(Stmt.Return stmt){
 		Object value = null;
-		if(stmt.value != null){
+		if(stmt.value instanceof Expr.Call call && call.tailCall){
+			value = tailCall(call);
+		}
+		else if(stmt.value != null){
 			value = evaluate(stmt.value);
 		}
 		//System.out.println("Returning `" + unwrap(value) + "`");
 
-		throw new Return(value);
+		returnValue = value;
+		return Completion.RETURN;
 	}
 
 	@Override
-	public Void visitImportStmt(Stmt.Import stmt) {
+	public Completion visitImportStmt(Stmt.Import stmt) {
 		String module = stmt.moduleName;
 		String resolvedPath = null;
 		try {
@@ -799,18 +1059,45 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 		alreadyImported.add(resolvedPath);
 
-		String source = readFile(resolvedPath, stmt.keyword, module);
-		List<Stmt> statements = new Parser(new Scanner(source, currentSourceFile).scanTokens(), currentSourceFile).parse();
-
-		Resolver resolver = new Resolver(this, currentSourceFile);
-		resolver.resolve(statements);
+		List<Stmt> statements = loadModule(resolvedPath, stmt.keyword, module);
 
-		interpret(statements);
+		// Modules always define into the global scope, wherever the import statement appears.
+		Environment previous = environment;
+		environment = globals;
+		try {
+			interpret(statements);
+		} finally {
+			environment = previous;
+		}
 
 		this.currentSourceFile = currFile;
 		return null;
 	}
 
+	// The resolved, optimized statements of a module.
+	private List<Stmt> loadModule(String resolvedPath, Token keyword, String module) {
+		if (prelude != null) {
+			List<Stmt> statements = prelude.take(resolvedPath);
+			if (statements != null) return statements;
+		}
+
+		String source = readFile(resolvedPath, keyword, module);
+		List<Stmt> statements = ModuleCache.load(resolvedPath, source);
+		if (statements == null) {
+			statements = new Parser(new Scanner(source, currentSourceFile).scanTokens(), currentSourceFile).parse();
+
+			Resolver resolver = new Resolver(this, currentSourceFile);
+			resolver.resolve(statements);
+			statements = new Optimizer(this).optimize(statements);
+
+			// A module that failed to compile is never cached, so its errors are reported every run.
+			if (!Gem.hadError) ModuleCache.store(resolvedPath, source, statements);
+		}
+
+		if (prelude != null) prelude.record(resolvedPath, source, statements);
+		return statements;
+	}
+
 	private String readFile(String pathOrResource, Token keyword, String module) {
 		try {
 			if (pathOrResource.startsWith("@internal/")) {
@@ -849,7 +1136,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	}
 
 	@Override
-	public Void visitClassStmt(Stmt.Class stmt) {
+	public Completion visitClassStmt(Stmt.Class stmt) {
 		Object superclass = null;
 		if (stmt.superclass != null) {
 			superclass = evaluate(stmt.superclass);
@@ -859,11 +1146,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 			}
 		}
 
-		environment.define(stmt.name.lexeme, null);
+		if(stmt.slot >= 0){
+			environment.define(stmt.slot, null);
+		}
+		else{
+			environment.define(stmt.name.lexeme, null);
+		}
 
 		if(stmt.superclass != null){
-			environment = new Environment(environment);
-			environment.define("super", superclass);
+			environment = new Environment(environment, Environment.SUPER_SLOTS);
+			environment.define(0, superclass);
 		}
 
 		Map<String, GemFunction> methods = new HashMap<>();
@@ -914,7 +1206,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 		if(superclass != null){
 			environment = environment.enclosing;
 		}
-		environment.assign(stmt.name, klass);
+
+		if(stmt.slot >= 0){
+			environment.define(stmt.slot, klass);
+		}
+		else{
+			environment.assign(stmt.name, klass);
+		}
 		return null;
 	}
 
@@ -955,19 +1253,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 	@Override
 	public Object visitThisExpr(Expr.This expr) {
-		return environment.get(expr.keyword);
-	}
-
-	void resolve(Expr expr, int depth){
-		locals.put(expr, depth);
+		return lookUpVariable(expr.keyword, expr.depth, expr.slot);
 	}
 
 	@Override
 	public Object visitSuperExpr(Expr.Super expr) {
-		int distance = locals.get(expr);
-		GemClass superclass = (GemClass) environment.getAt(distance, "super");
+		return superMethod(expr, environment.getAt(expr.depth, expr.slot), environment.getAt(expr.thisDepth, expr.thisSlot));
+	}
 
-		GemInstance object = (GemInstance) environment.getAt(distance - 1, "this");
-		return new DeferredSuperCallable(superclass, object, expr.method.lexeme, expr.keyword);
+	Object superMethod(Expr.Super expr, Object superclass, Object object) {
+		return new DeferredSuperCallable((GemClass) superclass, (GemInstance) object, expr.method.lexeme, expr.keyword);
 	}
 }
\ No newline at end of file
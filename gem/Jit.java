@@ -0,0 +1,163 @@
+package com.interpreter.gem;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Second tier for plain Gem functions. After THRESHOLD interpreted calls a function is handed to
+// JitCompiler; the generated class is loaded as a hidden class and entered through a MethodHandle.
+// Compiled code is used only while its assumptions hold: every argument is a number, and every
+// global function it calls is still bound to the value it was compiled against. A failed argument
+// check runs that one call in the interpreter; rebinding a global drops the code so it can be
+// compiled again, and a deoptimization from inside the code gives up on the function for good.
+public class Jit {
+    static boolean enabled = true;
+    static boolean log = false;
+    static final int THRESHOLD = 1000;
+
+    static long compiledFunctions = 0;
+    static long rejectedFunctions = 0;
+    static long deoptimizations = 0;
+    static long invalidations = 0;
+
+    static final class Deopt extends RuntimeException {
+        Deopt() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final Deopt DEOPT = new Deopt();
+
+    static final class Code {
+        final String name;
+        final int arity;
+        // (Object[])Object, unboxing the arguments and boxing the result.
+        final MethodHandle entry;
+        boolean valid = true;
+
+        Code(String name, int arity, MethodHandle entry) {
+            this.name = name;
+            this.arity = arity;
+            this.entry = entry;
+        }
+    }
+
+    // Compiled code by the global names it depends on.
+    private static final Map<String, List<Code>> dependents = new HashMap<>();
+
+    // Runs a call through compiled code, compiling the function first if it has none yet.
+    // Returns null when the call has to be done by the interpreter instead.
+    static Object run(GemFunction function, List<Object> arguments) {
+        return run(function, arguments.toArray(), 0);
+    }
+
+    // The same, for arguments lying in an array from the given index, as on the VM's stack.
+    static Object run(GemFunction function, Object[] arguments, int from) {
+        Code code = function.jitCode;
+        if (code == null) {
+            if (!enabled || function.declaration.hasReceiver) return null;
+            code = compile(function);
+            if (code == null) return null;
+            function.jitCode = code;
+        }
+
+        if (!code.valid) {
+            // Let it warm up again against the new bindings.
+            function.jitCode = null;
+            function.calls = 0;
+            return null;
+        }
+
+        Object[] values = new Object[code.arity];
+        for (int i = 0; i < values.length; i++) {
+            Object argument = arguments[from + i];
+            if (!(argument instanceof Double)) return null;
+            values[i] = argument;
+        }
+
+        try {
+            return code.entry.invokeExact(values);
+        } catch (Deopt | StackOverflowError e) {
+            // Compiled recursion runs on the Java stack and has no depth limit of its own, so a
+            // function that overflows it goes back to the interpreter, which counts calls against
+            // --max-depth, the same way as one that deoptimized.
+            deoptimizations++;
+            if (log) System.err.println("[jit] deoptimized " + code.name + ", interpreting it from now on");
+            function.jitCode = null;
+            function.calls = THRESHOLD;
+            return null;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Code compile(GemFunction function) {
+        Stmt.Function declaration = function.declaration;
+        String name = Interpreter.mangleName(declaration.name.lexeme, declaration.params.size());
+        JitCompiler compiler = new JitCompiler(function);
+        try {
+            byte[] bytes = compiler.compile();
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            int arity = declaration.params.size();
+            MethodHandle handle = lookup.findStatic(lookup.lookupClass(), "f0", JitCompiler.methodType(arity))
+                    .asType(MethodType.genericMethodType(arity))
+                    .asSpreader(Object[].class, arity);
+            Code code = new Code(name, arity, handle);
+            for (String dependency : compiler.dependencies.keySet()) {
+                dependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(code);
+            }
+            compiledFunctions++;
+            if (log) {
+                System.err.println("[jit] compiled " + name + " after " + function.calls + " calls ("
+                        + compiler.functions.size() + " function(s), " + bytes.length + " bytes)");
+            }
+            return code;
+        } catch (JitCompiler.Unsupported e) {
+            rejectedFunctions++;
+            if (log) System.err.println("[jit] not compiling " + name + ": " + e.getMessage());
+            return null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            rejectedFunctions++;
+            if (log) System.err.println("[jit] failed to load code for " + name + ": " + e);
+            return null;
+        }
+    }
+
+    // Called whenever a global is defined or assigned.
+    static void rebound(String name) {
+        if (dependents.isEmpty()) return;
+        List<Code> codes = dependents.remove(name);
+        if (codes == null) return;
+
+        for (Code code : codes) {
+            if (!code.valid) continue;
+            code.valid = false;
+            invalidations++;
+            if (log) System.err.println("[jit] invalidated " + code.name + ": '" + name + "' was rebound");
+        }
+    }
+
+    static String stats() {
+        return String.format("JIT: %d functions compiled, %d rejected, %d deoptimizations, %d invalidations",
+                compiledFunctions, rejectedFunctions, deoptimizations, invalidations);
+    }
+
+    // Runtime helpers called from compiled code.
+
+    static double intDivide(double left, double right) {
+        int divisor = (int) right;
+        // Let the interpreter redo the call and fail the way it always has.
+        if (divisor == 0) throw DEOPT;
+        return (double) ((int) left / divisor);
+    }
+
+    static boolean equal(double left, double right) {
+        return Interpreter.nearlyEqualRel(left, right, 1e-9, 1e-12);
+    }
+}
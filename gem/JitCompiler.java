@@ -0,0 +1,657 @@
+package com.interpreter.gem;
+
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Translates purely numeric Gem functions into static methods of a single JVM class. Values are
+// doubles, conditions are int truth values, and a call to another global Gem function becomes a
+// plain invokestatic to that function's own method in the same class, so HotSpot can inline across
+// Gem calls. Anything outside that subset rejects the whole unit. A result the subset can't
+// represent at run time (falling off the end of a function, integer division by zero) throws
+// Jit.DEOPT, and since compiled code has no side effects the interpreter simply redoes the call.
+public class JitCompiler implements Expr.Visitor<JitCompiler.Type>, Stmt.Visitor<Void> {
+    enum Type { NUMBER, BOOLEAN }
+
+    static class Unsupported extends RuntimeException {
+        Unsupported(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    private static final String CLASS_NAME = "com/interpreter/gem/JitCode";
+    private static final String JIT = "com/interpreter/gem/Jit";
+    // Branch offsets are signed 16-bit and the old verifier needs no stack maps below version 50.
+    private static final int MAX_CODE = Short.MAX_VALUE;
+    private static final int CLASS_VERSION = 49;
+
+    private static final int ICONST_0 = 0x03, ICONST_1 = 0x04, DCONST_0 = 0x0e, DCONST_1 = 0x0f, LDC2_W = 0x14;
+    private static final int DLOAD = 0x18, DSTORE = 0x39, POP = 0x57, POP2 = 0x58, DUP = 0x59, DUP2 = 0x5c;
+    private static final int DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DREM = 0x73, DNEG = 0x77, IXOR = 0x82;
+    private static final int DCMPL = 0x97, DCMPG = 0x98;
+    private static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e, GOTO = 0xa7;
+    private static final int DRETURN = 0xaf, GETSTATIC = 0xb2, INVOKESTATIC = 0xb8, ATHROW = 0xbf;
+
+    // The unit: the hot function first, then everything it calls, each compiled to method "f<index>".
+    final List<GemFunction> functions = new ArrayList<>();
+    // Global names the unit resolved at compile time; rebinding any of them invalidates the code.
+    final Map<String, Object> dependencies = new LinkedHashMap<>();
+
+    private final Buffer pool = new Buffer();
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+    private final Buffer methods = new Buffer();
+
+    // State of the method being compiled.
+    private Map<String, Object> globals;
+    private Buffer code;
+    private int stack;
+    private int maxStack;
+    private int nextLocal;
+    private int maxLocals;
+    // JVM local index of slot 0 of each frame, innermost last; doubles take two locals per slot.
+    private final List<Integer> scopes = new ArrayList<>();
+    private Loop loop;
+
+    private static class Label {
+        int position = -1;
+        final List<Integer> jumps = new ArrayList<>();
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final Label breakLabel;
+        final Label continueLabel;
+
+        Loop(Loop enclosing, Label breakLabel, Label continueLabel) {
+            this.enclosing = enclosing;
+            this.breakLabel = breakLabel;
+            this.continueLabel = continueLabel;
+        }
+    }
+
+    JitCompiler(GemFunction root) {
+        functions.add(root);
+    }
+
+    static MethodType methodType(int arity) {
+        return MethodType.methodType(double.class, Collections.nCopies(arity, double.class));
+    }
+
+    byte[] compile() {
+        for (int i = 0; i < functions.size(); i++) {
+            compileMethod(i, functions.get(i));
+        }
+        return classBytes();
+    }
+
+    private void compileMethod(int index, GemFunction function) {
+        Stmt.Function declaration = function.declaration;
+        if (declaration.hasReceiver) {
+            throw new Unsupported("methods are not compiled");
+        }
+
+        globals = function.closure.globals.values;
+        code = new Buffer();
+        stack = 0;
+        maxStack = 0;
+        scopes.clear();
+        loop = null;
+
+        scopes.add(0);
+        nextLocal = 2 * declaration.frame.length;
+        maxLocals = nextLocal;
+        zeroLocals(declaration.params.size(), declaration.frame.length);
+
+        for (Stmt statement : declaration.body) {
+            statement.accept(this);
+        }
+        // Falling off the end returns nil, which compiled code can't produce.
+        deoptimize();
+
+        if (code.length > MAX_CODE) {
+            throw new Unsupported("function is too large");
+        }
+
+        methods.u2(0x0008); // ACC_STATIC
+        methods.u2(utf8("f" + index));
+        methods.u2(utf8(methodType(declaration.params.size()).toMethodDescriptorString()));
+        methods.u2(1);
+        methods.u2(utf8("Code"));
+        methods.u4(12 + code.length);
+        methods.u2(maxStack);
+        methods.u2(maxLocals);
+        methods.u4(code.length);
+        methods.write(code);
+        methods.u2(0);
+        methods.u2(0);
+    }
+
+    private byte[] classBytes() {
+        int thisClass = classRef(CLASS_NAME);
+        int superClass = classRef("java/lang/Object");
+
+        Buffer out = new Buffer();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(CLASS_VERSION);
+        out.u2(poolCount);
+        out.write(pool);
+        out.u2(0x0030); // ACC_FINAL | ACC_SUPER
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(0);
+        out.u2(0);
+        out.u2(functions.size());
+        out.write(methods);
+        out.u2(0);
+        return Arrays.copyOf(out.bytes, out.length);
+    }
+
+    // Constant pool.
+
+    private int constant(String key, int slots, Runnable writer) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+
+        writer.run();
+        index = poolCount;
+        poolCount += slots;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    private int utf8(String value) {
+        return constant("U" + value, 1, () -> {
+            pool.u1(1);
+            pool.utf(value);
+        });
+    }
+
+    private int classRef(String name) {
+        int nameIndex = utf8(name);
+        return constant("C" + name, 1, () -> {
+            pool.u1(7);
+            pool.u2(nameIndex);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return constant("N" + name + ":" + descriptor, 1, () -> {
+            pool.u1(12);
+            pool.u2(nameIndex);
+            pool.u2(descriptorIndex);
+        });
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int typeIndex = nameAndType(name, descriptor);
+        return constant(tag + owner + "." + name + ":" + descriptor, 1, () -> {
+            pool.u1(tag);
+            pool.u2(ownerIndex);
+            pool.u2(typeIndex);
+        });
+    }
+
+    private int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        return constant("D" + bits, 2, () -> {
+            pool.u1(6);
+            pool.u4((int) (bits >>> 32));
+            pool.u4((int) bits);
+        });
+    }
+
+    // Instructions.
+
+    private void op(int opcode, int stackEffect) {
+        code.u1(opcode);
+        stack += stackEffect;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void jump(int opcode, Label target, int stackEffect) {
+        int at = code.length;
+        op(opcode, stackEffect);
+        if (target.position >= 0) {
+            code.u2(target.position - at);
+        } else {
+            target.jumps.add(at);
+            code.u2(0);
+        }
+    }
+
+    private void place(Label label) {
+        label.position = code.length;
+        for (int at : label.jumps) {
+            code.putShort(at + 1, label.position - at);
+        }
+    }
+
+    private void pushDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            op(DCONST_0, 2);
+        } else if (value == 1.0) {
+            op(DCONST_1, 2);
+        } else {
+            op(LDC2_W, 2);
+            code.u2(doubleConstant(value));
+        }
+    }
+
+    private void local(int opcode, int index, int stackEffect) {
+        if (index > 254) {
+            throw new Unsupported("too many local variables");
+        }
+        op(opcode, stackEffect);
+        code.u1(index);
+        maxLocals = Math.max(maxLocals, index + 2);
+    }
+
+    private void invokeStatic(String owner, String name, String descriptor, int stackEffect) {
+        op(INVOKESTATIC, stackEffect);
+        code.u2(memberRef(10, owner, name, descriptor));
+    }
+
+    private void deoptimize() {
+        op(GETSTATIC, 1);
+        code.u2(memberRef(9, JIT, "DEOPT", "L" + JIT + "$Deopt;"));
+        op(ATHROW, -1);
+    }
+
+    // Turns the int on the stack into 1 if the branch would be taken and 0 otherwise.
+    private void materialize(int branch) {
+        Label isTrue = new Label();
+        Label end = new Label();
+        jump(branch, isTrue, -1);
+        op(ICONST_0, 1);
+        jump(GOTO, end, 0);
+        place(isTrue);
+        op(ICONST_1, 0);
+        place(end);
+    }
+
+    private void zeroLocals(int fromSlot, int toSlot) {
+        // Every frame slot gets a value up front, so the verifier sees all locals as assigned.
+        int base = scopes.getLast();
+        for (int slot = fromSlot; slot < toSlot; slot++) {
+            op(DCONST_0, 2);
+            local(DSTORE, base + 2 * slot, -2);
+        }
+    }
+
+    private int localIndex(int depth, int slot) {
+        if (depth < 0 || depth >= scopes.size()) {
+            throw new Unsupported("uses variables from outside the function");
+        }
+        return scopes.get(scopes.size() - 1 - depth) + 2 * slot;
+    }
+
+    private void number(Expr expr) {
+        if (expr.accept(this) != Type.NUMBER) {
+            throw new Unsupported("expected a number at line " + line(expr));
+        }
+    }
+
+    private void bool(Expr expr) {
+        if (expr.accept(this) != Type.BOOLEAN) {
+            throw new Unsupported("'and'/'or' on non-boolean operands");
+        }
+    }
+
+    // Leaves an int that is non-zero exactly when the value is truthy.
+    private void condition(Expr expr) {
+        if (expr.accept(this) == Type.NUMBER) {
+            op(DCONST_0, 2);
+            op(DCMPL, -3);
+        }
+    }
+
+    private static int line(Expr expr) {
+        if (expr instanceof Expr.Binary binary) return binary.operator.line;
+        if (expr instanceof Expr.Variable variable) return variable.name.line;
+        if (expr instanceof Expr.Call call) return call.paren.line;
+        return 0;
+    }
+
+    // Statements.
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        int saved = nextLocal;
+        scopes.add(nextLocal);
+        nextLocal += 2 * stmt.frame.length;
+        zeroLocals(0, stmt.frame.length);
+
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+
+        scopes.removeLast();
+        nextLocal = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitThrowStmt(Stmt.Throw stmt) {
+        throw new Unsupported("throw statement");
+    }
+
+    @Override
+    public Void visitTryStmt(Stmt.Try stmt) {
+        throw new Unsupported("try statement");
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported("class declaration");
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression.accept(this) == Type.NUMBER) {
+            op(POP2, -2);
+        } else {
+            op(POP, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Label elseLabel = new Label();
+        condition(stmt.condition);
+        jump(IFEQ, elseLabel, -1);
+        stmt.thenBranch.accept(this);
+
+        if (stmt.elseBranch == null) {
+            place(elseLabel);
+            return null;
+        }
+
+        Label end = new Label();
+        jump(GOTO, end, 0);
+        place(elseLabel);
+        stmt.elseBranch.accept(this);
+        place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Label start = new Label();
+        Label next = new Label();
+        Label exit = new Label();
+
+        place(start);
+        condition(stmt.condition);
+        jump(IFEQ, exit, -1);
+
+        loop = new Loop(loop, exit, next);
+        stmt.body.accept(this);
+        loop = loop.enclosing;
+
+        place(next);
+        if (stmt.increment != null) {
+            stmt.increment.accept(this);
+        }
+        jump(GOTO, start, 0);
+        place(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot < 0 || stmt.initializer == null) {
+            throw new Unsupported("variable '" + stmt.name.lexeme + "' is not an initialized local");
+        }
+        number(stmt.initializer);
+        local(DSTORE, localIndex(0, stmt.slot), -2);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            deoptimize();
+            return null;
+        }
+        number(stmt.value);
+        op(DRETURN, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        throw new Unsupported("import statement");
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("nested function '" + stmt.name.lexeme + "'");
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        jump(GOTO, loop.breakLabel, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        jump(GOTO, loop.continueLabel, 0);
+        return null;
+    }
+
+    // Expressions.
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+        number(expr.value);
+        op(DUP2, 2);
+        local(DSTORE, localIndex(expr.depth, expr.slot), -2);
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        number(expr.left);
+        number(expr.right);
+
+        switch (expr.operator.type) {
+            case PLUS -> op(DADD, -2);
+            case MINUS -> op(DSUB, -2);
+            case STAR -> op(DMUL, -2);
+            case SLASH -> op(DDIV, -2);
+            case PERCEN -> op(DREM, -2);
+            case BACKSLASH -> invokeStatic(JIT, "intDivide", "(DD)D", -2);
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+                // NaN compares false either way: dcmpg makes it "greater", dcmpl "less".
+                boolean less = expr.operator.type == TokenType.LESS || expr.operator.type == TokenType.LESS_EQUAL;
+                op(less ? DCMPG : DCMPL, -3);
+                materialize(switch (expr.operator.type) {
+                    case LESS -> IFLT;
+                    case LESS_EQUAL -> IFLE;
+                    case GREATER -> IFGT;
+                    default -> IFGE;
+                });
+                return Type.BOOLEAN;
+            }
+            case EQUAL_EQUAL, BANG_EQUAL -> {
+                invokeStatic(JIT, "equal", "(DD)Z", -3);
+                if (expr.operator.type == TokenType.BANG_EQUAL) {
+                    op(ICONST_1, 1);
+                    op(IXOR, -1);
+                }
+                return Type.BOOLEAN;
+            }
+            default -> throw new Unsupported("operator '" + expr.operator.lexeme + "'");
+        }
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return expr.expression.accept(this);
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double number) {
+            pushDouble(number);
+            return Type.NUMBER;
+        }
+        if (expr.value instanceof Boolean bool) {
+            op(bool ? ICONST_1 : ICONST_0, 1);
+            return Type.BOOLEAN;
+        }
+        throw new Unsupported("non-numeric literal");
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        // With boolean operands the result is a boolean too; on other values 'and'/'or' yield an operand.
+        Label end = new Label();
+        bool(expr.left);
+        op(DUP, 1);
+        jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end, -1);
+        op(POP, -1);
+        bool(expr.right);
+        place(end);
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS) {
+            number(expr.right);
+            op(DNEG, 0);
+            return Type.NUMBER;
+        }
+        condition(expr.right);
+        materialize(IFEQ);
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+        local(DLOAD, localIndex(expr.depth, expr.slot), 2);
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+        // Only calls that the interpreter would resolve to a global function's arity overload.
+        if (!(expr.callee instanceof Expr.Variable) || expr.depth >= 0
+                || !(globals.get(expr.mangledName) instanceof GemFunction target)
+                || target.declaration.hasReceiver) {
+            throw new Unsupported("call at line " + expr.paren.line + " is not to a global function");
+        }
+        dependencies.put(expr.mangledName, target);
+
+        int index = functions.indexOf(target);
+        if (index < 0) {
+            index = functions.size();
+            functions.add(target);
+        }
+
+        for (Expr argument : expr.arguments) {
+            number(argument);
+        }
+        int arity = expr.arguments.size();
+        invokeStatic(CLASS_NAME, "f" + index, methodType(arity).toMethodDescriptorString(), 2 - 2 * arity);
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get expr) {
+        throw new Unsupported("property access");
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set expr) {
+        throw new Unsupported("property access");
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr) {
+        throw new Unsupported("'this'");
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported("'super'");
+    }
+
+    @Override
+    public Type visitGetIndexExpr(Expr.GetIndex expr) {
+        throw new Unsupported("indexing");
+    }
+
+    @Override
+    public Type visitSetIndexExpr(Expr.SetIndex expr) {
+        throw new Unsupported("indexing");
+    }
+
+    @Override
+    public Type visitListLiteralExpr(Expr.ListLiteral expr) {
+        throw new Unsupported("list literal");
+    }
+
+    // Big-endian byte sink for the class file and the code of each method.
+    private static class Buffer {
+        byte[] bytes = new byte[256];
+        int length = 0;
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        void u1(int value) {
+            ensure(1);
+            bytes[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            ensure(2);
+            bytes[length++] = (byte) (value >>> 8);
+            bytes[length++] = (byte) value;
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void putShort(int at, int value) {
+            bytes[at] = (byte) (value >>> 8);
+            bytes[at + 1] = (byte) value;
+        }
+
+        void utf(String value) {
+            // Names here are plain ASCII identifiers and descriptors, so modified UTF-8 is the same bytes.
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            u2(encoded.length);
+            ensure(encoded.length);
+            System.arraycopy(encoded, 0, bytes, length, encoded.length);
+            length += encoded.length;
+        }
+
+        void write(Buffer other) {
+            ensure(other.length);
+            System.arraycopy(other.bytes, 0, bytes, length, other.length);
+            length += other.length;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.interpreter.gem;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Imported modules as resolved, optimized statements, one .gemc file each under modules/ in the
+// cache directory. A file is named by the hash of the interpreter version, the module's resolved
+// path and its source, so an edited module or a rebuilt interpreter simply misses and writes a new
+// one; the path is part of it because the statements carry their file in every token. Hits are
+// decoded straight from a memory-mapped read.
+class ModuleCache {
+    private static final String DIRECTORY = "modules";
+    private static final String EXTENSION = ".gemc";
+
+    // The cached statements of this module, or null when there are none to use.
+    static List<Stmt> load(String path, String source) {
+        Path file = file(path, source);
+        if (file == null || !Files.isRegularFile(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return AstCodec.decode(buffer);
+        } catch (IOException | RuntimeException e) {
+            // Unreadable or not written by this codec; parsing again replaces it.
+            return null;
+        }
+    }
+
+    static void store(String path, String source, List<Stmt> statements) {
+        Path file = file(path, source);
+        if (file == null) return;
+
+        try {
+            write(file, AstCodec.encode(statements));
+        } catch (IOException | UnsupportedOperationException | AstCodec.CodecException e) {
+            // The cache only saves time; the module is parsed again next run.
+        }
+    }
+
+    // Writes a cache file whole and moves it into place, so a concurrent run never maps half a file.
+    // Where the file system cannot move atomically it is replaced in place instead; a run that reads
+    // it half-written fails to decode and falls back to the source. The temporary file never
+    // outlives a failed write or move.
+    static void write(Path file, byte[] contents) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        boolean moved = false;
+        try {
+            Files.write(temporary, contents);
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved) Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static Path file(String path, String source) {
+        if (Interpreter.cacheDirectory == null) return null;
+        return Interpreter.cacheDirectory.resolve(DIRECTORY)
+                .resolve(AstCodec.hash(AstCodec.version(), path, source) + EXTENSION);
+    }
+}
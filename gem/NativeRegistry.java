@@ -0,0 +1,101 @@
+package com.interpreter.gem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Native functions by mangled name. Every jar that carries natives lists them in an index, one
+// "name$arity=fully.qualified.ClassName" per line, which GemNative writes when it builds them.
+// Only the indexes are read, on the first lookup; a native's class is loaded and instantiated the
+// first time a call asks for it. Jars in the plugin directory (plugins/ next to Interpreter.jar,
+// or the one given with --plugins=<dir>) are indexed the same way, so extra natives need no rebuild.
+public class NativeRegistry {
+    static final String INDEX = "com/interpreter/natives/index";
+
+    static Path pluginDirectory = Interpreter.sourcePath.resolveSibling("plugins");
+
+    private static final class Entry {
+        final String className;
+        final ClassLoader loader;
+        GemCallable instance;
+
+        Entry(String className, ClassLoader loader) {
+            this.className = className;
+            this.loader = loader;
+        }
+    }
+
+    private static Map<String, Entry> entries;
+
+    // The native with this mangled name, or null when there is none.
+    static GemCallable lookup(String mangledName) {
+        if (entries == null) entries = index();
+
+        Entry entry = entries.get(mangledName);
+        if (entry == null) return null;
+        if (entry.instance == null) {
+            try {
+                Class<?> type = Class.forName(entry.className, true, entry.loader);
+                entry.instance = (GemCallable) type.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+                throw new IllegalStateException("Cannot load native '" + mangledName + "' from " + entry.className, e);
+            }
+        }
+        return entry.instance;
+    }
+
+    private static Map<String, Entry> index() {
+        Map<String, Entry> index = new HashMap<>();
+        ClassLoader loader = NativeRegistry.class.getClassLoader();
+        try {
+            Enumeration<URL> resources = loader.getResources(INDEX);
+            while (resources.hasMoreElements()) {
+                read(resources.nextElement(), loader, index);
+            }
+
+            // Plugins come last so they cannot replace a built-in native.
+            for (Path jar : pluginJars()) {
+                URLClassLoader pluginLoader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, loader);
+                URL resource = pluginLoader.findResource(INDEX);
+                if (resource != null) read(resource, pluginLoader, index);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read the native index", e);
+        }
+        return index;
+    }
+
+    private static List<Path> pluginJars() throws IOException {
+        if (!Files.isDirectory(pluginDirectory)) return List.of();
+        try (Stream<Path> files = Files.list(pluginDirectory)) {
+            List<Path> jars = new ArrayList<>(files.filter(file -> file.toString().endsWith(".jar")).toList());
+            jars.sort(null);
+            return jars;
+        }
+    }
+
+    private static void read(URL resource, ClassLoader loader, Map<String, Entry> index) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                int split = line.indexOf('=');
+                if (split < 0) continue;
+                index.putIfAbsent(line.substring(0, split).trim(), new Entry(line.substring(split + 1).trim(), loader));
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.interpreter.gem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs between the Resolver and the Interpreter. Folds operators whose operands are literals,
+// picks the live branch of an if with a literal condition, drops while loops that never run and
+// statements that follow a return, throw, break or continue. Folding goes through the
+// Interpreter's own operator code and is limited to operands no operator method can apply to, so
+// the folded value is the one the program would have computed. It works on the resolved tree so
+// that dead code still gets the Resolver's diagnostics; a rebuilt node carries over the slots and
+// names the Resolver stored on the node it replaces, and unchanged subtrees are kept as they are.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private final Interpreter interpreter;
+
+    static long folded = 0;
+    static long removed = 0;
+
+    Optimizer(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    static String stats() {
+        return String.format("Optimizer: %d expressions folded, %d statements removed", folded, removed);
+    }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = statements.get(i);
+            Stmt optimized = optimize(statement);
+            if (optimized != statement) changed = true;
+            if (optimized == null) {
+                removed++;
+                continue;
+            }
+
+            result.add(optimized);
+            if (terminates(optimized) && i < statements.size() - 1) {
+                removed += statements.size() - 1 - i;
+                changed = true;
+                break;
+            }
+        }
+        return changed ? result : statements;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    // A removed branch or body still needs a statement in its place.
+    private Stmt required(Stmt stmt) {
+        Stmt optimized = optimize(stmt);
+        if (optimized == null && stmt != null) {
+            removed++;
+            return new Stmt.Block(new ArrayList<>());
+        }
+        return optimized;
+    }
+
+    private List<Expr> optimizeAll(List<Expr> exprs) {
+        List<Expr> result = new ArrayList<>(exprs.size());
+        boolean changed = false;
+        for (Expr expr : exprs) {
+            Expr optimized = optimize(expr);
+            if (optimized != expr) changed = true;
+            result.add(optimized);
+        }
+        return changed ? result : exprs;
+    }
+
+    private static boolean terminates(Stmt stmt) {
+        if (stmt instanceof Stmt.Return || stmt instanceof Stmt.Throw
+                || stmt instanceof Stmt.Break || stmt instanceof Stmt.Continue) {
+            return true;
+        }
+        if (stmt instanceof Stmt.Block block) {
+            return !block.statements.isEmpty() && terminates(block.statements.getLast());
+        }
+        if (stmt instanceof Stmt.If ifStmt) {
+            return ifStmt.elseBranch != null && terminates(ifStmt.thenBranch) && terminates(ifStmt.elseBranch);
+        }
+        return false;
+    }
+
+    private static boolean isPrimitive(Object value) {
+        return value == null || value instanceof Double || value instanceof String || value instanceof Boolean;
+    }
+
+    // Whether the operator on these literal operands is fully decided by the generic operator code
+    // without reaching overload(), and without raising an error.
+    private static boolean canFold(TokenType operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return switch (operator) {
+                case PLUS, MINUS, STAR, SLASH, PERCEN, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL,
+                     EQUAL_EQUAL, BANG_EQUAL -> true;
+                case BACKSLASH -> (int) (double) (Double) right != 0;
+                default -> false;
+            };
+        }
+        return switch (operator) {
+            case EQUAL_EQUAL, BANG_EQUAL -> isPrimitive(left) && isPrimitive(right);
+            case PLUS -> (left instanceof String && isPrimitive(right)) || (right instanceof String && isPrimitive(left));
+            default -> false;
+        };
+    }
+
+    private Expr literal(Object value) {
+        folded++;
+        return new Expr.Literal(value);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimize(stmt.statements);
+        if (statements == stmt.statements) return stmt;
+
+        Stmt.Block block = new Stmt.Block(statements);
+        block.frame = stmt.frame;
+        return block;
+    }
+
+    @Override
+    public Stmt visitThrowStmt(Stmt.Throw stmt) {
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+        return new Stmt.Throw(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitTryStmt(Stmt.Try stmt) {
+        Stmt tryBlock = required(stmt.tryBlock);
+        Stmt catchBlock = required(stmt.catchBlock);
+        Stmt finallyBlock = required(stmt.finallyBlock);
+        if (tryBlock == stmt.tryBlock && catchBlock == stmt.catchBlock && finallyBlock == stmt.finallyBlock) {
+            return stmt;
+        }
+
+        Stmt.Try tryStmt = new Stmt.Try(tryBlock, stmt.catchToken, stmt.errorVar, catchBlock, finallyBlock);
+        tryStmt.catchFrame = stmt.catchFrame;
+        return tryStmt;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = optimizeFunctions(stmt.methods);
+        List<Stmt.Function> staticMethods = optimizeFunctions(stmt.staticMethods);
+        List<Stmt.Var> staticFields = new ArrayList<>(stmt.staticFields.size());
+        boolean changed = methods != stmt.methods || staticMethods != stmt.staticMethods;
+        for (Stmt.Var field : stmt.staticFields) {
+            Stmt.Var optimized = (Stmt.Var) optimize(field);
+            if (optimized != field) changed = true;
+            staticFields.add(optimized);
+        }
+        if (!changed) return stmt;
+
+        Stmt.Class classStmt = new Stmt.Class(stmt.name, stmt.superclass, methods, staticMethods, staticFields);
+        classStmt.slot = stmt.slot;
+        return classStmt;
+    }
+
+    private List<Stmt.Function> optimizeFunctions(List<Stmt.Function> functions) {
+        List<Stmt.Function> result = new ArrayList<>(functions.size());
+        boolean changed = false;
+        for (Stmt.Function function : functions) {
+            Stmt.Function optimized = (Stmt.Function) optimize(function);
+            if (optimized != function) changed = true;
+            result.add(optimized);
+        }
+        return changed ? result : functions;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal literal) {
+            removed++;
+            return interpreter.isTruthy(literal.value) ? optimize(stmt.thenBranch) : optimize(stmt.elseBranch);
+        }
+
+        Stmt thenBranch = required(stmt.thenBranch);
+        Stmt elseBranch = optimize(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal literal && !interpreter.isTruthy(literal.value)) {
+            return null;
+        }
+
+        Stmt body = required(stmt.body);
+        Stmt increment = optimize(stmt.increment);
+        if (condition == stmt.condition && body == stmt.body && increment == stmt.increment) {
+            return stmt;
+        }
+        return new Stmt.While(condition, body, increment);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        return var;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = optimize(stmt.body);
+        if (body == stmt.body) return stmt;
+
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body, stmt.parent);
+        function.frame = stmt.frame;
+        function.slot = stmt.slot;
+        function.dispatcherSlot = stmt.dispatcherSlot;
+        function.hasReceiver = stmt.hasReceiver;
+        return function;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal leftLiteral && right instanceof Expr.Literal rightLiteral
+                && canFold(expr.operator.type, leftLiteral.value, rightLiteral.value)) {
+            return literal(interpreter.genericBinary(expr, leftLiteral.value, rightLiteral.value));
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.expression);
+        if (expression instanceof Expr.Literal) return expression;
+        if (expression == expr.expression) return expr;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // The result is the left operand when it decides the outcome, otherwise the right one.
+        if (left instanceof Expr.Literal literal) {
+            folded++;
+            boolean truthy = interpreter.isTruthy(literal.value);
+            boolean decided = expr.operator.type == TokenType.OR ? truthy : !truthy;
+            return decided ? left : right;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal literal) {
+            if (expr.operator.type == TokenType.BANG) {
+                return literal(!interpreter.isTruthy(literal.value));
+            }
+            if (expr.operator.type == TokenType.MINUS && literal.value instanceof Double number) {
+                return literal(-number);
+            }
+        }
+
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = optimizeAll(expr.arguments);
+        if (callee == expr.callee && arguments == expr.arguments) return expr;
+
+        Expr.Call call = new Expr.Call(callee, expr.paren, arguments);
+        call.mangledName = expr.mangledName;
+        call.depth = expr.depth;
+        call.slot = expr.slot;
+        call.tailCall = expr.tailCall;
+        return call;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGetIndexExpr(Expr.GetIndex expr) {
+        Expr object = optimize(expr.object);
+        Expr indexStart = optimize(expr.indexStart);
+        Expr indexEnd = optimize(expr.indexEnd);
+        if (object == expr.object && indexStart == expr.indexStart && indexEnd == expr.indexEnd) return expr;
+        return new Expr.GetIndex(object, indexStart, indexEnd, expr.bracket);
+    }
+
+    @Override
+    public Expr visitSetIndexExpr(Expr.SetIndex expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && index == expr.index && value == expr.value) return expr;
+        return new Expr.SetIndex(object, index, value, expr.bracket);
+    }
+
+    @Override
+    public Expr visitListLiteralExpr(Expr.ListLiteral expr) {
+        List<Expr> elements = optimizeAll(expr.elements);
+        if (elements == expr.elements) return expr;
+        return new Expr.ListLiteral(elements);
+    }
+}
@@ -161,6 +161,11 @@ class Parser{
 		if (match(BANG, MINUS)) {
 			Token operator = previous();
 			Expr right = unary();
+
+			// Signed number literals such as -1 are materialized once here instead of negated on every evaluation.
+			if (operator.type == MINUS && right instanceof Expr.Literal literal && literal.value instanceof Double number) {
+				return new Expr.Literal(-number);
+			}
 			return new Expr.Unary(operator, right);
 		}
 
@@ -447,10 +452,6 @@ class Parser{
 
 		Stmt body = statement();
 
-		if(increment != null){
-			body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-		}
-
 		if(condition == null) condition = new Expr.Literal(true);
 
 		if(increment != null)
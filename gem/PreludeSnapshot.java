@@ -0,0 +1,166 @@
+package com.interpreter.gem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// The auto-imported prelude (gem.String, gem.Number, gem.Boolean, gem.List and what they import),
+// kept in one file as resolved, optimized statements so startup does not scan, parse and resolve
+// it again. The file is read in a single call and is only used by the interpreter build that
+// wrote it; each module also carries a fingerprint of its source, checked every time it is taken.
+// When anything is missing, stale or damaged the prelude is loaded from source as before and the
+// file is written again afterwards; each module's bytes carry a checksum, so damage is caught before
+// they are decoded rather than while the prelude runs.
+//
+// Running the restored statements still defines the prelude's classes and functions; that part
+// is cheap, and leaves every class and closure exactly as loading from source would.
+class PreludeSnapshot {
+    private static final String FILE = "prelude.snap";
+    private static final int MAGIC = 0x47454d53; // "GEMS"
+
+    private static final class Module {
+        final String sourceFingerprint;
+        final byte[] encoded;
+        final long checksum;
+        List<Stmt> statements;
+
+        Module(String sourceFingerprint, byte[] encoded, long checksum, List<Stmt> statements) {
+            this.sourceFingerprint = sourceFingerprint;
+            this.encoded = encoded;
+            this.checksum = checksum;
+            this.statements = statements;
+        }
+    }
+
+    private final Path file;
+    // In the order they were first imported, by resolved import path.
+    private final Map<String, Module> modules = new LinkedHashMap<>();
+    private boolean changed = false;
+
+    private PreludeSnapshot(Path file) {
+        this.file = file;
+    }
+
+    static PreludeSnapshot open(Path directory) {
+        PreludeSnapshot snapshot = new PreludeSnapshot(directory == null ? null : directory.resolve(FILE));
+        if (snapshot.file != null && Files.isRegularFile(snapshot.file)) {
+            try {
+                snapshot.read(new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(snapshot.file))));
+            } catch (IOException | RuntimeException e) {
+                // Unreadable or damaged; the whole prelude loads from source and the file is replaced.
+                snapshot.modules.clear();
+                snapshot.changed = true;
+            }
+        }
+        return snapshot;
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || !AstCodec.version().equals(in.readUTF())) return;
+
+        // Counts and lengths are checked against the bytes left before anything is allocated.
+        int count = in.readInt();
+        if (count < 0 || count > in.available()) throw new IOException("Malformed prelude snapshot.");
+        for (int i = 0; i < count; i++) {
+            String path = in.readUTF();
+            String sourceFingerprint = in.readUTF();
+            long checksum = in.readLong();
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) throw new IOException("Truncated prelude snapshot.");
+            byte[] encoded = new byte[length];
+            in.readFully(encoded);
+            modules.put(path, new Module(sourceFingerprint, encoded, checksum, null));
+        }
+    }
+
+    // The statements of a prelude module, or null when the snapshot has no usable copy of it.
+    List<Stmt> take(String path) {
+        Module module = modules.get(path);
+        if (module == null || module.statements != null) return null;
+
+        String source = source(path);
+        if (source == null || !module.sourceFingerprint.equals(fingerprint(source))) {
+            modules.remove(path);
+            changed = true;
+            return null;
+        }
+        try {
+            if (checksum(module.encoded) != module.checksum) throw new AstCodec.CodecException("Damaged prelude module.");
+            module.statements = AstCodec.decode(ByteBuffer.wrap(module.encoded));
+            return module.statements;
+        } catch (AstCodec.CodecException e) {
+            modules.remove(path);
+            changed = true;
+            return null;
+        }
+    }
+
+    // A prelude module that had to be loaded from source, for the next snapshot.
+    void record(String path, String source, List<Stmt> statements) {
+        if (file == null || !path.startsWith("@internal/")) return;
+        try {
+            byte[] encoded = AstCodec.encode(statements);
+            modules.put(path, new Module(fingerprint(source), encoded, checksum(encoded), statements));
+            changed = true;
+        } catch (AstCodec.CodecException e) {
+            // Left out; it is loaded from source next time too.
+        }
+    }
+
+    // Called once the prelude has run. Writes the snapshot again if any module came from source.
+    void finish() {
+        if (file == null || !changed) return;
+
+        modules.values().removeIf(module -> module.statements == null);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeUTF(AstCodec.version());
+            out.writeInt(modules.size());
+            for (Map.Entry<String, Module> entry : modules.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().sourceFingerprint);
+                out.writeLong(entry.getValue().checksum);
+                out.writeInt(entry.getValue().encoded.length);
+                out.write(entry.getValue().encoded);
+            }
+            out.flush();
+
+            // Concurrent runs may race to write it; each writes a whole file and moves it into place.
+            ModuleCache.write(file, bytes.toByteArray());
+        } catch (IOException | UnsupportedOperationException e) {
+            // The snapshot only saves time; without it the prelude keeps loading from source.
+        }
+    }
+
+    private static long checksum(byte[] encoded) {
+        CRC32 crc = new CRC32();
+        crc.update(encoded);
+        return crc.getValue();
+    }
+
+    private static String fingerprint(String source) {
+        return new AstCodec.Fingerprint().update(source.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static String source(String path) {
+        String resource = path.substring("@internal/".length());
+        try (InputStream in = PreludeSnapshot.class.getClassLoader().getResourceAsStream(resource)) {
+            return in == null ? null : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -13,10 +13,13 @@ import java.util.stream.StreamSupport;
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private final Interpreter interpreter;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<List<String>> slots = new Stack<>();
     private ClassType currentClass = ClassType.NONE;
     private final List<String> internalImports = List.of("String", "Number", "Boolean");
     private final Path currentSourceFile;
     private boolean inLoop = false;
+    // Try statements around the current point of the function being resolved.
+    private int tryDepth = 0;
 
     private enum ClassType {
         NONE,
@@ -75,10 +78,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void beginScope() {
         scopes.push(new HashMap<>());
+        slots.push(new ArrayList<>());
     }
 
-    private void endScope() {
+    // Returns the frame layout of the closed scope: slot i holds the i-th declared name.
+    private String[] endScope() {
         scopes.pop();
+        return slots.pop().toArray(new String[0]);
     }
 
     private void declare(Token name) {
@@ -90,6 +96,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         scope.put(name.lexeme, false);
+        slots.peek().add(name.lexeme);
+    }
+
+    private void declareSynthetic(String name) {
+        scopes.peek().put(name, true);
+        slots.peek().add(name);
+    }
+
+    private int slotOf(String name) {
+        if (scopes.isEmpty()) return -1;
+        return slots.peek().indexOf(name);
     }
 
     private void define(Token name) {
@@ -98,34 +115,60 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void resolveLocal(Expr expr, Token name) {
+        resolveLocal(expr, name.lexeme);
+    }
+
+    // Number of scopes between the innermost one and the one declaring the name, or -1 for globals.
+    private int depthOf(String name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
-            }
+            if (scopes.get(i).containsKey(name)) return scopes.size() - 1 - i;
+        }
+        return -1;
+    }
+
+    private void resolveLocal(Expr expr, String name) {
+        int depth = depthOf(name);
+        if (depth < 0) return;
+
+        int slot = slots.get(scopes.size() - 1 - depth).indexOf(name);
+        switch (expr) {
+            case Expr.Variable variable -> { variable.depth = depth; variable.slot = slot; }
+            case Expr.Assign assign -> { assign.depth = depth; assign.slot = slot; }
+            case Expr.This thisExpr -> { thisExpr.depth = depth; thisExpr.slot = slot; }
+            case Expr.Super superExpr -> { superExpr.depth = depth; superExpr.slot = slot; }
+            case Expr.Call call -> { call.depth = depth; call.slot = slot; }
+            default -> throw new IllegalArgumentException("Cannot resolve " + expr.getClass().getSimpleName());
         }
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        int enclosingTryDepth = tryDepth;
+        tryDepth = 0;
 
         beginScope();
+        // Methods take their receiver in slot 0 of their own frame instead of a separate scope around them.
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER || type == FunctionType.STATIC) {
+            declareSynthetic("this");
+            function.hasReceiver = true;
+        }
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
         resolve(function.body);
-        endScope();
+        function.frame = endScope();
 
         currentFunction = enclosingFunction;
+        tryDepth = enclosingTryDepth;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
         resolve(stmt.statements);
-        endScope();
+        stmt.frame = endScope();
         return null;
     }
 
@@ -137,18 +180,26 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitTryStmt(Stmt.Try stmt) {
+        tryDepth++;
         resolve(stmt.tryBlock);
         if(stmt.catchBlock != null) {
             beginScope();
 
-            //declare(stmt.errorVar.name);
-            //define(stmt.errorVar.name);
-            resolve(stmt.catchBlock);
+            declare(stmt.errorVar.name);
+            define(stmt.errorVar.name);
 
-            endScope();
+            // The interpreter runs the catch body directly in the frame holding the error.
+            if (stmt.catchBlock instanceof Stmt.Block block) {
+                resolve(block.statements);
+            } else {
+                resolve(stmt.catchBlock);
+            }
+
+            stmt.catchFrame = endScope();
         }
         if(stmt.finallyBlock != null)
             resolve(stmt.finallyBlock);
+        tryDepth--;
 
         return null;
     }
@@ -166,6 +217,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         declare(stmt.name);
         define(stmt.name);
+        stmt.slot = slotOf(stmt.name.lexeme);
 
         if (stmt.superclass != null &&
                 stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
@@ -177,11 +229,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             currentClass = ClassType.SUBCLASS;
             resolve(stmt.superclass);
             beginScope();
-            scopes.peek().put("super", true);
+            declareSynthetic("super");
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
+        // Static fields live on the class, not in a frame, and are initialized outside the method scope.
+        for(Stmt.Var var : stmt.staticFields){
+            if(var.initializer != null){
+                resolve(var.initializer);
+            }
+        }
 
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
@@ -199,17 +255,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, declaration);
         }
 
-        for(Stmt.Var var : stmt.staticFields){
-            declare(var.name);
-            if(var.initializer != null){
-                resolve(var.initializer);
-            }
-
-            define(var.name);
-        }
-
-        endScope();
-
         if(stmt.superclass != null) {
             endScope();
         }
@@ -229,6 +274,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         resolveLocal(expr, expr.keyword);
+
+        // The receiver sits in the enclosing method's frame, not next to 'super'.
+        expr.thisDepth = depthOf("this");
+        if (expr.thisDepth >= 0) {
+            expr.thisSlot = slots.get(scopes.size() - 1 - expr.thisDepth).indexOf("this");
+        }
         return null;
     }
 
@@ -244,6 +295,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         define(stmt.name);
+        stmt.slot = slotOf(stmt.name.lexeme);
         return null;
     }
 
@@ -278,6 +330,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitFunctionStmt(Stmt.Function stmt) {
         declare(stmt.name);
         define(stmt.name);
+        stmt.dispatcherSlot = slotOf(stmt.name.lexeme);
+
+        // Calls look the function up by its arity-mangled name, so that name needs a slot as well.
+        Token mangled = new Token(TokenType.IDENTIFIER, Interpreter.mangleName(stmt.name.lexeme, stmt.params.size()), null, stmt.name.line, stmt.name.sourceFile);
+        declare(mangled);
+        define(mangled);
+        stmt.slot = slotOf(mangled.lexeme);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -328,6 +387,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(stmt.value);
         }
 
+        // 'return f(...)' can hand its frame over to the callee, unless a catch or finally
+        // still has to run once the call is done.
+        if (stmt.value instanceof Expr.Call call && call.callee instanceof Expr.Variable && tryDepth == 0) {
+            call.tailCall = true;
+        }
+
         return null;
     }
 
@@ -345,6 +410,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         resolve(stmt.body);
         inLoop = enclosingLoop;
 
+        // The increment runs in the loop's own scope, after the body's block has been left.
+        if (stmt.increment != null) {
+            resolve(stmt.increment);
+        }
+
         return null;
     }
 
@@ -360,6 +430,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitCallExpr(Expr.Call expr) {
         resolve(expr.callee);
 
+        // Argument counts are fixed by the syntax, so the overload a call names can be resolved here once.
+        if (expr.callee instanceof Expr.Variable variable) {
+            expr.mangledName = Interpreter.mangleName(variable.name.lexeme, expr.arguments.size());
+            resolveLocal(expr, expr.mangledName);
+        }
+
         for (Expr argument : expr.arguments) {
             resolve(argument);
         }
@@ -1,9 +0,0 @@
-package com.interpreter.gem;
-
-public class Return extends RuntimeException {
-    final Object value;
-    Return(Object value){
-        super(null, null, false, false);
-        this.value = value;
-    }
-}
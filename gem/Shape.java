@@ -0,0 +1,44 @@
+package com.interpreter.gem;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Hidden class for GemInstance fields. Instances of a class that add the same fields in the
+// same order share one Shape, which maps each field name to its offset in the instance's array.
+public class Shape {
+    final GemClass klass;
+    private final Map<String, Integer> offsets;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    Shape(GemClass klass) {
+        this(klass, new HashMap<>());
+    }
+
+    private Shape(GemClass klass, Map<String, Integer> offsets) {
+        this.klass = klass;
+        this.offsets = offsets;
+    }
+
+    int offsetOf(String name) {
+        Integer offset = offsets.get(name);
+        return offset == null ? -1 : offset;
+    }
+
+    int size() {
+        return offsets.size();
+    }
+
+    Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> extended = new HashMap<>(offsets);
+            extended.put(name, offsets.size());
+            next = new Shape(klass, extended);
+            transitions.put(name, next);
+
+            // Field names only need registering with the class scope once, when the transition is first taken.
+            Interpreter.scopes.get(klass.name()).add(name);
+        }
+        return next;
+    }
+}
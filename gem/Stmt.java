@@ -28,7 +28,19 @@ abstract class Stmt {
 		return visitor.visitBlockStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitBlockStmt(this);
+	}
+
+	@Override
+	int line(){
+		return -1;
+	}
+
     final List<Stmt> statements;
+
+    String[] frame = Environment.NO_SLOTS;
   }
   static class Throw extends Stmt {
     Throw(Token keyword, Expr value) {
@@ -41,6 +53,16 @@ abstract class Stmt {
 		return visitor.visitThrowStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitThrowStmt(this);
+	}
+
+	@Override
+	int line(){
+		return keyword == null ? -1 : keyword.line;
+	}
+
     final Token keyword;
     final Expr value;
   }
@@ -58,11 +80,23 @@ abstract class Stmt {
 		return visitor.visitTryStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitTryStmt(this);
+	}
+
+	@Override
+	int line(){
+		return catchToken == null ? -1 : catchToken.line;
+	}
+
     final Stmt tryBlock;
     final Token catchToken;
     final Expr.Variable errorVar;
     final Stmt catchBlock;
     final Stmt finallyBlock;
+
+    String[] catchFrame = Environment.NO_SLOTS;
   }
   static class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Stmt.Function> staticMethods, List<Stmt.Var> staticFields) {
@@ -78,11 +112,23 @@ abstract class Stmt {
 		return visitor.visitClassStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitClassStmt(this);
+	}
+
+	@Override
+	int line(){
+		return name == null ? -1 : name.line;
+	}
+
     final Token name;
     final Expr.Variable superclass;
     final List<Stmt.Function> methods;
     final List<Stmt.Function> staticMethods;
     final List<Stmt.Var> staticFields;
+
+    int slot = -1;
   }
   static class Expression extends Stmt {
     Expression(Expr expression) {
@@ -94,6 +140,16 @@ abstract class Stmt {
 		return visitor.visitExpressionStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitExpressionStmt(this);
+	}
+
+	@Override
+	int line(){
+		return expression == null ? -1 : expression.line();
+	}
+
     final Expr expression;
   }
   static class If extends Stmt {
@@ -108,6 +164,16 @@ abstract class Stmt {
 		return visitor.visitIfStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitIfStmt(this);
+	}
+
+	@Override
+	int line(){
+		return condition == null ? -1 : condition.line();
+	}
+
     final Expr condition;
     final Stmt thenBranch;
     final Stmt elseBranch;
@@ -124,6 +190,16 @@ abstract class Stmt {
 		return visitor.visitWhileStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitWhileStmt(this);
+	}
+
+	@Override
+	int line(){
+		return condition == null ? -1 : condition.line();
+	}
+
     final Expr condition;
     final Stmt body;
     final Stmt increment;
@@ -139,8 +215,20 @@ abstract class Stmt {
 		return visitor.visitVarStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitVarStmt(this);
+	}
+
+	@Override
+	int line(){
+		return name == null ? -1 : name.line;
+	}
+
     final Token name;
     final Expr initializer;
+
+    int slot = -1;
   }
   static class Return extends Stmt {
     Return(Token keyword, Expr value) {
@@ -153,6 +241,16 @@ abstract class Stmt {
 		return visitor.visitReturnStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitReturnStmt(this);
+	}
+
+	@Override
+	int line(){
+		return keyword == null ? -1 : keyword.line;
+	}
+
     final Token keyword;
     final Expr value;
   }
@@ -167,6 +265,16 @@ abstract class Stmt {
 		return visitor.visitImportStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitImportStmt(this);
+	}
+
+	@Override
+	int line(){
+		return keyword == null ? -1 : keyword.line;
+	}
+
     final String moduleName;
     final Token keyword;
   }
@@ -183,10 +291,26 @@ abstract class Stmt {
 		return visitor.visitFunctionStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitFunctionStmt(this);
+	}
+
+	@Override
+	int line(){
+		return name == null ? -1 : name.line;
+	}
+
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
     final String parent;
+
+    String[] frame = Environment.NO_SLOTS;
+    int slot = -1;
+    int dispatcherSlot = -1;
+    boolean hasReceiver = false;
+    Chunk chunk = null;
   }
   static class Break extends Stmt {
     Break(Token keyword) {
@@ -198,6 +322,16 @@ abstract class Stmt {
 		return visitor.visitBreakStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitBreakStmt(this);
+	}
+
+	@Override
+	int line(){
+		return keyword == null ? -1 : keyword.line;
+	}
+
     final Token keyword;
   }
   static class Continue extends Stmt {
@@ -210,8 +344,28 @@ abstract class Stmt {
 		return visitor.visitContinueStmt(this);
 	}
 
+	@Override
+	Interpreter.Completion execute(Interpreter interpreter){
+		return interpreter.visitContinueStmt(this);
+	}
+
+	@Override
+	int line(){
+		return keyword == null ? -1 : keyword.line;
+	}
+
     final Token keyword;
   }
 
 	abstract <R> R accept(Visitor<R> visitor);
+
+	// Direct entry for the Interpreter: one virtual call on the node, landing straight in the
+	// interpreter's method instead of going through the Visitor interface.
+	abstract Interpreter.Completion execute(Interpreter interpreter);
+
+	// Source line for profiles, or -1 when the node carries no token.
+	abstract int line();
+
+	// Times the Interpreter ran this node while profiling was on.
+	long executions;
 }
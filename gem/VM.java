@@ -0,0 +1,546 @@
+package com.interpreter.gem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.interpreter.gem.Chunk.*;
+
+// Stack machine for chunks produced by BytecodeCompiler. Operator, call and property semantics
+// come from the Interpreter's own helpers, so both engines agree on overloads, wrappers and
+// private access; the VM runs control flow, variables, calls and the common numeric cases itself.
+//
+// Each activation is a Frame whose slots hold the chunk's registers followed by its operand stack.
+// Arguments are copied straight from the caller's stack into the callee's registers, and calls to
+// Gem functions and cached methods do not recurse into run(): the caller is parked and the callee
+// runs from the same loop, so recursion depth is bounded by --max-depth and the heap rather than by
+// the Java stack. Only declarations, natives and classes being instantiated go through Java calls.
+public class VM {
+    private final Interpreter interpreter;
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // A try statement in progress: where to go when an error reaches it, and what to restore.
+    private static final class Handler {
+        final Handler next;
+        final int target;
+        final int kind;
+        final int sp;
+        final Environment env;
+        final int callStackDepth;
+
+        Handler(Handler next, int target, int kind, int sp, Environment env, int callStackDepth) {
+            this.next = next;
+            this.target = target;
+            this.kind = kind;
+            this.sp = sp;
+            this.env = env;
+            this.callStackDepth = callStackDepth;
+        }
+    }
+
+    // One activation: the chunk it runs, where it is in it, and what to undo when it returns. A
+    // tail call rebinds the same frame to the callee, so the chunk and callee fields can change.
+    private static final class Frame {
+        final Frame caller;
+        int[] code;
+        Object[] constants;
+        Object[] slots;
+        String clazz;
+        // Null for a script chunk.
+        GemFunction function;
+        GemInstance receiver;
+        // Whether the call pushed a stack trace entry that has to come off on return.
+        final boolean traced;
+        // Whether a tail call from this frame pushed the entry its chain of tail calls shares.
+        boolean tailed;
+        int sp;
+        int ip;
+        Environment env;
+        Handler handler;
+        // What the entry frame of a run returned.
+        Object result;
+
+        Frame(Frame caller, Chunk chunk, Environment env, String clazz, GemFunction function, GemInstance receiver, boolean traced) {
+            this.caller = caller;
+            this.code = chunk.code;
+            this.constants = chunk.constants;
+            this.slots = new Object[chunk.registers + chunk.maxStack];
+            this.sp = chunk.registers;
+            this.env = env;
+            this.clazz = clazz;
+            this.function = function;
+            this.receiver = receiver;
+            this.traced = traced;
+        }
+    }
+
+    // Runs a script or module chunk in the given environment.
+    void execute(Chunk chunk, Environment environment, String clazz) {
+        Environment previous = interpreter.environment;
+        String previousClass = interpreter.currentClass;
+        int previousDepth = interpreter.callDepth;
+        try {
+            run(new Frame(null, chunk, environment, clazz, null, null, false));
+        } finally {
+            interpreter.environment = previous;
+            interpreter.currentClass = previousClass;
+            // Frames still on the heap stack when an error escapes never returned.
+            interpreter.callDepth = previousDepth;
+        }
+    }
+
+    // Calls a Gem function from Java: a native, an operator overload, a class's initializer.
+    Object invoke(GemFunction function, GemInstance receiver, List<Object> arguments) {
+        Environment previous = interpreter.environment;
+        String previousClass = interpreter.currentClass;
+        int previousDepth = interpreter.callDepth;
+        try {
+            Object[] values = arguments.toArray();
+            return run(enter(null, function, receiver, values, 0, false));
+        } finally {
+            interpreter.environment = previous;
+            interpreter.currentClass = previousClass;
+            interpreter.callDepth = previousDepth;
+        }
+    }
+
+    private Object run(Frame entry) {
+        Frame frame = entry;
+        while (frame != null) {
+            try {
+                frame = dispatch(frame);
+            } catch (GemThrow error) {
+                frame = unwind(frame, error);
+            }
+        }
+        return entry.result;
+    }
+
+    // Runs a frame until it calls or returns, then hands back the frame to go on with, or null
+    // once the entry frame is done; an error escaping it is unwound by run(). Coming back out on
+    // every call and return lets the JVM switch to newly compiled code for this loop instead of
+    // staying in the version a long-running script first entered.
+    private Frame dispatch(Frame frame) {
+        // Everything the loop touches lives in locals; a frame saves them before it is left.
+        int[] code = frame.code;
+        Object[] constants = frame.constants;
+        Object[] stack = frame.slots;
+        Environment env = frame.env;
+        int sp = frame.sp;
+        int ip = frame.ip;
+        interpreter.environment = env;
+        interpreter.currentClass = frame.clazz;
+
+        while (true) {
+            switch (code[ip++]) {
+                case CONSTANT -> stack[sp++] = constants[code[ip++]];
+                case POP -> sp--;
+                case GET_REGISTER -> stack[sp++] = stack[code[ip++]];
+                case SET_REGISTER -> stack[code[ip++]] = stack[sp - 1];
+                case STORE_REGISTER -> stack[code[ip++]] = stack[--sp];
+                case GET_LOCAL -> {
+                    Environment target = env;
+                    for (int depth = code[ip++]; depth > 0; depth--) target = target.enclosing;
+                    stack[sp++] = target.slots[code[ip++]];
+                }
+                case SET_LOCAL -> {
+                    Environment target = env;
+                    for (int depth = code[ip++]; depth > 0; depth--) target = target.enclosing;
+                    target.slots[code[ip++]] = stack[sp - 1];
+                }
+                case STORE_LOCAL -> {
+                    Environment target = env;
+                    for (int depth = code[ip++]; depth > 0; depth--) target = target.enclosing;
+                    target.slots[code[ip++]] = stack[--sp];
+                }
+                case JUMP -> ip = code[ip];
+                case JUMP_IF_FALSE -> ip = truthy(stack[--sp]) ? ip + 1 : code[ip];
+                case JUMP_UNLESS_LESS -> {
+                    int r = code[ip + 2];
+                    Object right = r == STACK ? stack[--sp] : operand(stack, constants, r);
+                    int l = code[ip + 1];
+                    Object left = l == STACK ? stack[--sp] : operand(stack, constants, l);
+                    boolean taken = left instanceof Double a && right instanceof Double b
+                            ? a < b : truthy(interpreter.binary((Expr.Binary) constants[code[ip]], left, right));
+                    ip = taken ? ip + 4 : code[ip + 3];
+                }
+                case JUMP_UNLESS_LESS_EQUAL -> {
+                    int r = code[ip + 2];
+                    Object right = r == STACK ? stack[--sp] : operand(stack, constants, r);
+                    int l = code[ip + 1];
+                    Object left = l == STACK ? stack[--sp] : operand(stack, constants, l);
+                    boolean taken = left instanceof Double a && right instanceof Double b
+                            ? a <= b : truthy(interpreter.binary((Expr.Binary) constants[code[ip]], left, right));
+                    ip = taken ? ip + 4 : code[ip + 3];
+                }
+                case JUMP_UNLESS_GREATER -> {
+                    int r = code[ip + 2];
+                    Object right = r == STACK ? stack[--sp] : operand(stack, constants, r);
+                    int l = code[ip + 1];
+                    Object left = l == STACK ? stack[--sp] : operand(stack, constants, l);
+                    boolean taken = left instanceof Double a && right instanceof Double b
+                            ? a > b : truthy(interpreter.binary((Expr.Binary) constants[code[ip]], left, right));
+                    ip = taken ? ip + 4 : code[ip + 3];
+                }
+                case JUMP_UNLESS_GREATER_EQUAL -> {
+                    int r = code[ip + 2];
+                    Object right = r == STACK ? stack[--sp] : operand(stack, constants, r);
+                    int l = code[ip + 1];
+                    Object left = l == STACK ? stack[--sp] : operand(stack, constants, l);
+                    boolean taken = left instanceof Double a && right instanceof Double b
+                            ? a >= b : truthy(interpreter.binary((Expr.Binary) constants[code[ip]], left, right));
+                    ip = taken ? ip + 4 : code[ip + 3];
+                }
+                case ADD -> {
+                    int r = code[ip + 2];
+                    Object right = r == STACK ? stack[--sp] : operand(stack, constants, r);
+                    int l = code[ip + 1];
+                    Object left = l == STACK ? stack[--sp] : operand(stack, constants, l);
+                    stack[sp++] = left instanceof Double a && right instanceof Double b
+                            ? (Object) (a + b) : interpreter.binary((Expr.Binary) constants[code[ip]], left, right);
+                    ip += 3;
+                }
+                case SUBTRACT -> {
+                    int r = code[ip + 2];
+                    Object right = r == STACK ? stack[--sp] : operand(stack, constants, r);
+                    int l = code[ip + 1];
+                    Object left = l == STACK ? stack[--sp] : operand(stack, constants, l);
+                    stack[sp++] = left instanceof Double a && right instanceof Double b
+                            ? (Object) (a - b) : interpreter.binary((Expr.Binary) constants[code[ip]], left, right);
+                    ip += 3;
+                }
+                case MULTIPLY -> {
+                    int r = code[ip + 2];
+                    Object right = r == STACK ? stack[--sp] : operand(stack, constants, r);
+                    int l = code[ip + 1];
+                    Object left = l == STACK ? stack[--sp] : operand(stack, constants, l);
+                    stack[sp++] = left instanceof Double a && right instanceof Double b
+                            ? (Object) (a * b) : interpreter.binary((Expr.Binary) constants[code[ip]], left, right);
+                    ip += 3;
+                }
+                case DIVIDE -> {
+                    int r = code[ip + 2];
+                    Object right = r == STACK ? stack[--sp] : operand(stack, constants, r);
+                    int l = code[ip + 1];
+                    Object left = l == STACK ? stack[--sp] : operand(stack, constants, l);
+                    stack[sp++] = left instanceof Double a && right instanceof Double b
+                            ? (Object) (a / b) : interpreter.binary((Expr.Binary) constants[code[ip]], left, right);
+                    ip += 3;
+                }
+                case MODULO -> {
+                    int r = code[ip + 2];
+                    Object right = r == STACK ? stack[--sp] : operand(stack, constants, r);
+                    int l = code[ip + 1];
+                    Object left = l == STACK ? stack[--sp] : operand(stack, constants, l);
+                    stack[sp++] = left instanceof Double a && right instanceof Double b
+                            ? (Object) modulo(a, b) : interpreter.binary((Expr.Binary) constants[code[ip]], left, right);
+                    ip += 3;
+                }
+                case CALL -> {
+                    save(frame, ip + 2, sp, env);
+                    return call(frame, (Expr.Call) constants[code[ip]], code[ip + 1], false);
+                }
+                case TAIL_CALL -> {
+                    save(frame, ip + 2, sp, env);
+                    return call(frame, (Expr.Call) constants[code[ip]], code[ip + 1], true);
+                }
+                case INVOKE -> {
+                    save(frame, ip + 2, sp, env);
+                    return invoke(frame, (Expr.Call) constants[code[ip]], code[ip + 1]);
+                }
+                case RETURN -> {
+                    Object result = frame.function.result(frame.receiver, stack[--sp]);
+                    if (frame.caller != null) return leave(frame, result);
+                    if (frame.tailed) Interpreter.callStack.pop();
+                    frame.result = result;
+                    return null;
+                }
+                case END -> {
+                    return null;
+                }
+                default -> {
+                    save(frame, ip, sp, env);
+                    step(frame, code[ip - 1]);
+                    ip = frame.ip;
+                    sp = frame.sp;
+                    env = frame.env;
+                }
+            }
+        }
+    }
+
+    // Everything dispatch() leaves out to stay small enough for the JVM to compile well: operations
+    // that go through the Interpreter anyway, declarations, blocks that can be captured and try
+    // statements. Works on the state the frame saved, and saves it again.
+    private void step(Frame frame, int op) {
+        int[] code = frame.code;
+        Object[] constants = frame.constants;
+        Object[] stack = frame.slots;
+        Environment env = frame.env;
+        int sp = frame.sp;
+        int ip = frame.ip;
+
+        switch (op) {
+            case DEFINE_REGISTER -> {
+                stack[code[ip++]] = stack[--sp];
+                interpreter.declare((Stmt.Var) constants[code[ip++]]);
+            }
+            case DEFINE_VAR -> interpreter.defineVariable((Stmt.Var) constants[code[ip++]], stack[--sp]);
+            case GET_NAME -> stack[sp++] = env.get((String) constants[code[ip++]]);
+            case SET_GLOBAL -> interpreter.globals.assign((Token) constants[code[ip++]], stack[sp - 1]);
+            case ENTER_BLOCK -> {
+                env = new Environment(env, (String[]) constants[code[ip++]]);
+                interpreter.environment = env;
+            }
+            case EXIT_BLOCK -> {
+                env = env.enclosing;
+                interpreter.environment = env;
+            }
+            case JUMP_IF_FALSE_KEEP -> ip = truthy(stack[sp - 1]) ? ip + 1 : code[ip];
+            case JUMP_IF_TRUE_KEEP -> ip = truthy(stack[sp - 1]) ? code[ip] : ip + 1;
+            case BINARY -> {
+                int r = code[ip + 2];
+                Object right = r == STACK ? stack[--sp] : operand(stack, constants, r);
+                int l = code[ip + 1];
+                Object left = l == STACK ? stack[--sp] : operand(stack, constants, l);
+                stack[sp++] = interpreter.binary((Expr.Binary) constants[code[ip]], left, right);
+                ip += 3;
+            }
+            case NEGATE -> {
+                Object right = stack[sp - 1];
+                stack[sp - 1] = right instanceof Double number
+                        ? (Object) (-number) : interpreter.unary((Expr.Unary) constants[code[ip]], right);
+                ip++;
+            }
+            case NOT -> stack[sp - 1] = !truthy(stack[sp - 1]);
+            case GLOBAL_CALLEE -> {
+                Object callee = interpreter.globalCallee((Expr.Call) constants[code[ip++]]);
+                if (callee == Interpreter.NOT_FOUND) {
+                    ip++;
+                } else {
+                    stack[sp++] = callee;
+                    ip = code[ip];
+                }
+            }
+            case NAMED_CALLEE -> {
+                Expr.Call expr = (Expr.Call) constants[code[ip++]];
+                stack[sp++] = interpreter.globalVariable((Expr.Variable) expr.callee);
+            }
+            case CALL_VALUE -> {
+                Expr.Call expr = (Expr.Call) constants[code[ip++]];
+                int argc = code[ip++];
+                Object callee = interpreter.wrap(stack[--sp]);
+                sp -= argc;
+                stack[sp] = interpreter.callValue(expr, callee, arguments(stack, sp, argc));
+                sp++;
+            }
+            case GET_PROPERTY -> stack[sp - 1] = interpreter.getProperty((Expr.Get) constants[code[ip++]], stack[sp - 1]);
+            case CHECK_SET -> interpreter.checkSetTarget((Expr.Set) constants[code[ip++]], stack[sp - 1]);
+            case SET_PROPERTY -> {
+                Object value = stack[--sp];
+                stack[sp - 1] = interpreter.setProperty((Expr.Set) constants[code[ip++]], stack[sp - 1], value);
+            }
+            case SUPER -> {
+                Object object = stack[--sp];
+                stack[sp - 1] = interpreter.superMethod((Expr.Super) constants[code[ip++]], stack[sp - 1], object);
+            }
+            case GET_INDEX -> {
+                sp -= 2;
+                stack[sp - 1] = interpreter.getIndex((Expr.GetIndex) constants[code[ip++]], stack[sp - 1], stack[sp], stack[sp + 1]);
+            }
+            case SET_INDEX -> {
+                sp -= 2;
+                stack[sp - 1] = interpreter.setIndex((Expr.SetIndex) constants[code[ip++]], stack[sp - 1], stack[sp], stack[sp + 1]);
+            }
+            case LIST -> {
+                int size = code[ip++];
+                sp -= size;
+                GemList list = new GemList();
+                for (int i = 0; i < size; i++) {
+                    list.add(Interpreter.unwrap(stack[sp + i]));
+                }
+                stack[sp++] = interpreter.wrapList(list);
+            }
+            case EXEC -> interpreter.execute((Stmt) constants[code[ip++]]);
+            case THROW -> interpreter.throwValue(((Stmt.Throw) constants[code[ip++]]).keyword, stack[--sp]);
+            case RETHROW -> throw (GemThrow) stack[--sp];
+            case PUSH_HANDLER -> {
+                frame.handler = new Handler(frame.handler, code[ip], code[ip + 1], sp, env, Interpreter.callStack.size());
+                ip += 2;
+            }
+            case POP_HANDLER -> frame.handler = frame.handler.next;
+            default -> throw new IllegalStateException("Unknown opcode " + op);
+        }
+        save(frame, ip, sp, env);
+    }
+
+    private static void save(Frame frame, int ip, int sp, Environment env) {
+        frame.ip = ip;
+        frame.sp = sp;
+        frame.env = env;
+    }
+
+    // A call through a name. A Gem function that takes its arguments as they are runs on a new
+    // frame, or on this one for a tail call, or as JIT code; anything else goes through the
+    // Interpreter and its result is pushed on the caller's stack.
+    private Frame call(Frame frame, Expr.Call expr, int argc, boolean tail) {
+        Object[] stack = frame.slots;
+        Object callee = interpreter.wrap(stack[frame.sp - 1]);
+        int sp = frame.sp - 1 - argc;
+        Expr.Variable varExpr = (Expr.Variable) expr.callee;
+        if (!(callee instanceof GemFunction function) || function.rawArguments || argc != function.arity()) {
+            return push(frame, sp, interpreter.callFunction(expr, varExpr, callee, arguments(stack, sp, argc)));
+        }
+
+        Interpreter.callStack.push(varExpr.name);
+        if (function.jitCode != null || ++function.calls == Jit.THRESHOLD) {
+            Object result = Jit.run(function, stack, sp);
+            if (result != null) {
+                Interpreter.callStack.pop();
+                return push(frame, sp, interpreter.wrap(result));
+            }
+        }
+        frame.sp = sp;
+        if (tail) return rebind(frame, function, stack, sp, varExpr.name);
+        return enter(frame, function, function.receiver(), stack, sp, true);
+    }
+
+    // obj.m(args): a method found through the call site's inline cache runs on a new frame.
+    private Frame invoke(Frame frame, Expr.Call expr, int argc) {
+        Object[] stack = frame.slots;
+        Object receiver = stack[frame.sp - 1];
+        int sp = frame.sp - 1 - argc;
+        Expr.Get getExpr = (Expr.Get) expr.callee;
+        GemFunction method = receiver instanceof GemInstance instance && getExpr.cache != null
+                ? getExpr.cache.method(instance, getExpr.name.lexeme, argc) : null;
+        if (method == null) {
+            return push(frame, sp, interpreter.callMethod(expr, getExpr, receiver, arguments(stack, sp, argc)));
+        }
+
+        frame.sp = sp;
+        return enter(frame, method, (GemInstance) receiver, stack, sp, false);
+    }
+
+    private static Frame push(Frame frame, int sp, Object value) {
+        frame.slots[sp] = value;
+        frame.sp = sp + 1;
+        return frame;
+    }
+
+    // Pops a callee's frame, handing its result to the caller.
+    private Frame leave(Frame frame, Object result) {
+        interpreter.callDepth--;
+        if (frame.traced) Interpreter.callStack.pop();
+        if (frame.tailed) Interpreter.callStack.pop();
+        return push(frame.caller, frame.caller.sp, interpreter.wrap(result));
+    }
+
+    // Moves to the innermost try statement of this run, dropping the frames in between, and
+    // leaves the handler's value on its stack.
+    private Frame unwind(Frame frame, GemThrow error) {
+        while (frame.handler == null) {
+            if (frame.caller == null) throw error;
+            interpreter.callDepth--;
+            frame = frame.caller;
+        }
+
+        Handler handler = frame.handler;
+        frame.handler = handler.next;
+        Interpreter.callStack.unwind(handler.callStackDepth);
+        frame.env = handler.env;
+        frame.ip = handler.target;
+        return push(frame, handler.sp, handler.kind == CATCH ? error.errorObject : error);
+    }
+
+    // Starts a Gem call on a new frame, taking the arguments from the caller's stack at from; the
+    // caller's sp, ip and env have already been saved.
+    private Frame enter(Frame caller, GemFunction function, GemInstance receiver, Object[] arguments, int from, boolean traced) {
+        Stmt.Function declaration = function.declaration;
+        interpreter.enterCall(declaration.name);
+
+        Chunk chunk = Interpreter.chunk(declaration);
+        Frame frame = new Frame(caller, chunk, function.closure, function.parent, function, receiver, traced);
+        Object[] slots = frame.slots;
+        if (!chunk.flat) {
+            frame.env = new Environment(function.closure, declaration.frame);
+            slots = frame.env.slots;
+        }
+        int first = 0;
+        if (declaration.hasReceiver) {
+            slots[first++] = receiver;
+        }
+        System.arraycopy(arguments, from, slots, first, declaration.params.size());
+        return frame;
+    }
+
+    // Double % is a runtime call in compiled code; whole numbers, which is what scripts almost
+    // always take remainders of, get the same result from long division.
+    private static double modulo(double a, double b) {
+        long x = (long) a;
+        long y = (long) b;
+        if (x != a || y != b || y == 0 || y == -1) return a % b;
+        long remainder = x % y;
+        return remainder == 0 ? Math.copySign(0.0, a) : remainder;
+    }
+
+    // An arithmetic operand the instruction reads itself: a register or a constant.
+    private static Object operand(Object[] stack, Object[] constants, int operand) {
+        return operand >= 0 ? stack[operand] : constants[CONSTANT_OPERAND - operand];
+    }
+
+    // Makes a tail call on the calling frame itself: the arguments become the callee's first
+    // slots and it starts from the top, without counting as another call against --max-depth.
+    // Its entry, just pushed, takes the place of the one an earlier tail call left.
+    private Frame rebind(Frame frame, GemFunction function, Object[] arguments, int from, Token site) {
+        if (frame.tailed) {
+            Interpreter.callStack.pop();
+            Interpreter.callStack.replace(site);
+        }
+        frame.tailed = true;
+
+        Stmt.Function declaration = function.declaration;
+        Chunk chunk = Interpreter.chunk(declaration);
+        GemInstance receiver = function.receiver();
+        if (frame.slots.length < chunk.registers + chunk.maxStack) {
+            frame.slots = new Object[chunk.registers + chunk.maxStack];
+        }
+        frame.code = chunk.code;
+        frame.constants = chunk.constants;
+        frame.clazz = function.parent;
+        frame.function = function;
+        frame.receiver = receiver;
+        frame.env = function.closure;
+        frame.sp = chunk.registers;
+        frame.ip = 0;
+
+        Object[] slots = frame.slots;
+        if (!chunk.flat) {
+            frame.env = new Environment(function.closure, declaration.frame);
+            slots = frame.env.slots;
+        }
+        // The arguments sit above the registers they are copied into, and arraycopy allows the overlap.
+        int first = declaration.hasReceiver ? 1 : 0;
+        System.arraycopy(arguments, from, slots, first, declaration.params.size());
+        if (declaration.hasReceiver) {
+            slots[0] = receiver;
+        }
+        return frame;
+    }
+
+    private boolean truthy(Object value) {
+        if (value == Boolean.TRUE) return true;
+        if (value == Boolean.FALSE) return false;
+        return interpreter.isTruthy(value);
+    }
+
+    // The arguments of a call the VM hands to the Interpreter, as the List its callables take.
+    private static List<Object> arguments(Object[] stack, int from, int count) {
+        List<Object> arguments = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            arguments.add(stack[i]);
+        }
+        return arguments;
+    }
+}
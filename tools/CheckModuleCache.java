@@ -0,0 +1,107 @@
+package com.interpreter.gem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Regression check for damaged .gemc files: every one of them has to be a cache miss, never an
+// exception out of ModuleCache.load. Lives in the interpreter's package to reach the cache, so it
+// is compiled along with it:
+//
+//     javac -d out gem/*.java GemNativeFunctions/*.java tools/CheckModuleCache.java
+//     java -cp out com.interpreter.gem.CheckModuleCache
+public class CheckModuleCache{
+	private static final String PATH = "/check/module.gem";
+	private static final String SOURCE = """
+			var greeting = "hello";
+			func twice(x){ return x * 2; }
+			class Point{ init(x, y){ this.x = x; this.y = y; } }
+			""";
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException{
+		Path directory = Files.createTempDirectory("gem-check");
+		Interpreter.cacheDirectory = directory;
+		try{
+			List<Stmt> statements = new Parser(new Scanner(SOURCE, Path.of(PATH)).scanTokens(), Path.of(PATH)).parse();
+			byte[] encoded = AstCodec.encode(statements);
+
+			check("intact file", encoded, true);
+			check("truncated file", Arrays.copyOf(encoded, encoded.length / 2), false);
+			check("statement count 0x7fffffff", withCount(0x7fffffff), false);
+			check("negative statement count", withCount(-1), false);
+			check("unusable file name", withFileName(encoded, "bad\0name"), false);
+		}finally{
+			try(Stream<Path> files = Files.walk(directory)){
+				files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+			}
+		}
+
+		if(failures > 0){
+			System.err.println(failures + " check(s) failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+	}
+
+	// Stores the bytes as the cached copy of the module and loads them back.
+	private static void check(String name, byte[] contents, boolean usable) throws IOException{
+		ModuleCache.store(PATH, SOURCE, List.of());
+		Path file;
+		try(Stream<Path> files = Files.list(Interpreter.cacheDirectory.resolve("modules"))){
+			file = files.filter(path -> path.toString().endsWith(".gemc")).findFirst().orElseThrow();
+		}
+		Files.write(file, contents);
+
+		String outcome;
+		try{
+			List<Stmt> loaded = ModuleCache.load(PATH, SOURCE);
+			outcome = loaded == null ? "miss" : "hit";
+		}catch(Throwable e){
+			outcome = e.toString();
+		}
+		String expected = usable ? "hit" : "miss";
+		if(!outcome.equals(expected)){
+			failures++;
+			System.err.println("FAIL " + name + ": expected " + expected + ", got " + outcome);
+		}else{
+			System.out.println("ok   " + name);
+		}
+	}
+
+	// A module header followed by a statement count and nothing else.
+	private static byte[] withCount(int count){
+		byte[] empty = AstCodec.encode(List.of());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(empty, 0, empty.length - 1);
+		int zigzag = (count << 1) ^ (count >> 31);
+		while((zigzag & ~0x7f) != 0){
+			out.write((zigzag & 0x7f) | 0x80);
+			zigzag >>>= 7;
+		}
+		out.write(zigzag);
+		return out.toByteArray();
+	}
+
+	// The same module with its source file name, stored once in the string table, swapped for
+	// another name of the same length.
+	private static byte[] withFileName(byte[] encoded, String name){
+		byte[] from = PATH.getBytes(StandardCharsets.UTF_8);
+		byte[] to = Arrays.copyOf(name.getBytes(StandardCharsets.UTF_8), from.length);
+		byte[] result = encoded.clone();
+		for(int i = 0; i + from.length <= result.length; i++){
+			if(Arrays.equals(result, i, i + from.length, from, 0, from.length)){
+				System.arraycopy(to, 0, result, i, to.length);
+				return result;
+			}
+		}
+		throw new IllegalStateException("File name not found in the encoded module.");
+	}
+}
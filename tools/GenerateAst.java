@@ -13,37 +13,37 @@ public class GenerateAst{
 		}
 		String outputDir = args[0];
 
-		defineAst(outputDir, "Expr", Arrays.asList(
-			"Assign   : Token name, Expr value",
-			"Binary   : Expr left, Token operator, Expr right",
+		defineAst(outputDir, "Expr", "Object", Arrays.asList(
+			"Assign   : Token name, Expr value | int depth = -1, int slot = -1",
+			"Binary   : Expr left, Token operator, Expr right | BinaryNode specialization = BinaryNode.UNINITIALIZED",
 			"Grouping : Expr expression",
       			"Literal  : Object value",
 			"Logical  : Expr left, Token operator, Expr right",
       			"Unary    : Token operator, Expr right",
-			"Variable : Token name, String parent",
-			"Call     : Expr callee, Token paren, List<Expr> arguments",
-			"Get      : Expr object, Token name",
-			"Set      : Expr object, Token name, Expr value",
-			"This     : Token keyword",
-			"Super    : Token keyword, Token method",
+			"Variable : Token name, String parent | int depth = -1, int slot = -1",
+			"Call     : Expr callee, Token paren, List<Expr> arguments | String mangledName = null, int depth = -1, int slot = -1, boolean tailCall = false",
+			"Get      : Expr object, Token name | InlineCache cache",
+			"Set      : Expr object, Token name, Expr value | InlineCache cache",
+			"This     : Token keyword | int depth = -1, int slot = -1",
+			"Super    : Token keyword, Token method | int depth = -1, int slot = -1, int thisDepth = -1, int thisSlot = -1",
 			"GetIndex : Expr object, Expr indexStart, Expr indexEnd, Token bracket",
 			"SetIndex : Expr object, Expr index, Expr value, Token bracket",
 			"ListLiteral : List<Expr> elements"
 
 		));
 
-		defineAst(outputDir, "Stmt", Arrays.asList(
-			"Block      : List<Stmt> statements",
+		defineAst(outputDir, "Stmt", "Interpreter.Completion", Arrays.asList(
+			"Block      : List<Stmt> statements | String[] frame = Environment.NO_SLOTS",
 			"Throw      : Token keyword, Expr value",
-			"Try	    : Stmt tryBlock, Token catchToken, Expr.Variable errorVar, Stmt catchBlock, Stmt finallyBlock",
-			"Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Stmt.Function> staticMethods, List<Stmt.Var> staticFields",
+			"Try	    : Stmt tryBlock, Token catchToken, Expr.Variable errorVar, Stmt catchBlock, Stmt finallyBlock | String[] catchFrame = Environment.NO_SLOTS",
+			"Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Stmt.Function> staticMethods, List<Stmt.Var> staticFields | int slot = -1",
 			"Expression : Expr expression",
 			"If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
 			"While      : Expr condition, Stmt body, Stmt increment",
-			"Var        : Token name, Expr initializer",
+			"Var        : Token name, Expr initializer | int slot = -1",
 			"Return     : Token keyword, Expr value",
 			"Import     : String moduleName, Token keyword",
-			"Function   : Token name, List<Token> params, List<Stmt> body, String parent",
+			"Function   : Token name, List<Token> params, List<Stmt> body, String parent | String[] frame = Environment.NO_SLOTS, int slot = -1, int dispatcherSlot = -1, boolean hasReceiver = false, Chunk chunk = null",
 			"Break      : Token keyword",
 			"Continue   : Token keyword"
 		));
@@ -51,7 +51,7 @@ public class GenerateAst{
 		
 	}
 
-	private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException{
+	private static void defineAst(String outputDir, String baseName, String resultType, List<String> types) throws IOException{
 		String path = outputDir + "/" + baseName + ".java";
 		PrintWriter writer = new PrintWriter(path, "UTF-8");
 
@@ -67,17 +67,34 @@ public class GenerateAst{
 		for (String type : types) {
     			String className = type.split(":")[0].trim();
     	  		String fields = type.split(":")[1].trim(); 
-    	  		defineType(writer, baseName, className, fields);
+    	  		defineType(writer, baseName, resultType, className, fields);
     		}
 
 		writer.println();
 		writer.println("	abstract <R> R accept(Visitor<R> visitor);");
+		writer.println();
+		writer.println("	// Direct entry for the Interpreter: one virtual call on the node, landing straight in the");
+		writer.println("	// interpreter's method instead of going through the Visitor interface.");
+		writer.println("	abstract " + resultType + " execute(Interpreter interpreter);");
+		writer.println();
+		writer.println("	// Source line for profiles, or -1 when the node carries no token.");
+		writer.println("	abstract int line();");
+		writer.println();
+		writer.println("	// Times the Interpreter ran this node while profiling was on.");
+		writer.println("	long executions;");
 
 		writer.println("}");
 		writer.close();
 	}
 
-	private static void defineType(PrintWriter writer, String baseName,String className, String fieldList) {
+	private static void defineType(PrintWriter writer, String baseName, String resultType, String className, String fieldList) {
+		// Fields after '|' are filled in by the Resolver or the Interpreter, so they stay mutable and out of the constructor.
+		String resolvedList = null;
+		if (fieldList.contains("|")) {
+			resolvedList = fieldList.split("\\|")[1].trim();
+			fieldList = fieldList.split("\\|")[0].trim();
+		}
+
     		writer.println("  static class " + className + " extends " + baseName + " {");
 
     		// Constructor.
@@ -100,15 +117,51 @@ public class GenerateAst{
 				"(this);");
 		writer.println("	}");
 
+		writer.println();
+		writer.println("	@Override");
+		writer.println("	" + resultType + " execute(Interpreter interpreter){");
+		writer.println("		return interpreter.visit" + className + baseName + "(this);");
+		writer.println("	}");
+
+		writer.println();
+		writer.println("	@Override");
+		writer.println("	int line(){");
+		writer.println("		return " + lineOf(fields) + ";");
+		writer.println("	}");
+
     		// Fields.
     		writer.println();
     		for (String field : fields) {
      	 		writer.println("    final " + field + ";");
     		}
 
+		if (resolvedList != null) {
+			writer.println();
+			for (String field : resolvedList.split(", ")) {
+				writer.println("    " + field + ";");
+			}
+		}
+
     		writer.println("  }");
   	}
 
+	// The first token the node holds, else the line of its first child node.
+	private static String lineOf(String[] fields) {
+		for (String field : fields) {
+			if (field.startsWith("Token ")) {
+				String name = field.split(" ")[1];
+				return name + " == null ? -1 : " + name + ".line";
+			}
+		}
+		for (String field : fields) {
+			if (field.startsWith("Expr") || field.startsWith("Stmt")) {
+				String name = field.split(" ")[1];
+				return name + " == null ? -1 : " + name + ".line()";
+			}
+		}
+		return "-1";
+	}
+
 	private static void defineVisitor(PrintWriter writer, String baseName, List<String> types){
 		writer.println("	interface Visitor<R> {");
 